@@ -0,0 +1,245 @@
+package nodeviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import xml.BuildManifest;
+import xml.ParseFlowGraph;
+import xml.ParseResult;
+
+/**
+ * Runs a shared {@link ParseFlowGraph} over many files at once on a fork-join pool. The dictionaries
+ * are loaded once by the ParseFlowGraph and only read afterwards.
+ */
+public class BatchProcessor implements FileProcessor {
+
+  /**
+   * Outcome of processing one file.
+   */
+  public static class FileResult {
+    final File file;
+    final ParseResult result;
+    final Exception error;
+    final long millis;
+
+    FileResult(File file, ParseResult result, Exception error, long millis) {
+      this.file = file;
+      this.result = result;
+      this.error = error;
+      this.millis = millis;
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    /**
+     * @return Whether the file was skipped because it was already up to date.
+     */
+    public boolean isSkipped() {
+      return error == null && result == null;
+    }
+  }
+
+  private final ParseFlowGraph pfg;
+  private final ForkJoinPool pool;
+  private final ConcurrentLinkedQueue<FileResult> results = new ConcurrentLinkedQueue<FileResult>();
+  private final ConcurrentLinkedQueue<CompletableFuture<Void>> rendering =
+      new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+  private final long startTime = System.nanoTime();
+  private BuildManifest manifest;
+
+  /**
+   * @param pfg Parser shared by all workers.
+   * @param parallelism Number of files processed at the same time.
+   */
+  public BatchProcessor(ParseFlowGraph pfg, int parallelism) {
+    this.pfg = pfg;
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Sets the manifest used to skip files that have not changed since they were last built.
+   * @param manifest
+   */
+  public void setManifest(BuildManifest manifest) {
+    this.manifest = manifest;
+  }
+
+  /**
+   * Queues a file for processing. Returns immediately.
+   * @param xml
+   */
+  @Override
+  public void submit(File xml) {
+    pool.execute(() -> {
+      long start = System.nanoTime();
+      try {
+        if (manifest == null || !manifest.isUpToDate(xml)) {
+          // The images are rendered in batches with those of other files, the file is done after them.
+          // Time spent in dot is summed up by the renderer.
+          ParseResult result = pfg.parseQueued(xml);
+          long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+          rendering.add(result.getRenders().handle((v, e) -> {
+            finish(xml, result, e == null ? null : unwrap(e), millis);
+            return null;
+          }));
+          return;
+        }
+        finish(xml, null, null, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      } catch (Exception e) {
+        finish(xml, null, e, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    });
+  }
+
+  private void finish(File xml, ParseResult result, Exception error, long millis) {
+    try {
+      if (manifest != null && error != null) {
+        manifest.markFailed(xml);
+      } else if (manifest != null && result != null) {
+        manifest.markBuilt(xml, result.getOutputs());
+      }
+    } catch (IOException e) {
+      if (error == null) {
+        error = e;
+      } else {
+        error.addSuppressed(e);
+      }
+    }
+    results.add(new FileResult(xml, error == null ? result : null, error, millis));
+  }
+
+  private static Exception unwrap(Throwable t) {
+    if (t instanceof CompletionException && t.getCause() != null) {
+      t = t.getCause();
+    }
+    return t instanceof Exception ? (Exception) t : new Exception(t);
+  }
+
+  /**
+   * Waits for all submitted files to finish, including the renders of their graphs.
+   * @return Results for every submitted file, in the order they finished.
+   * @throws InterruptedException
+   */
+  public List<FileResult> await() throws InterruptedException {
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    // Nothing more will join the last batch.
+    pfg.getRenderer().flush();
+    for (CompletableFuture<Void> r : rendering) {
+      try {
+        r.get();
+      } catch (ExecutionException e) {
+        // Already recorded by finish.
+      }
+    }
+    return new ArrayList<FileResult>(results);
+  }
+
+  /**
+   * Waits for all submitted files to finish and prints a summary of the whole batch.
+   * @throws InterruptedException
+   */
+  @Override
+  public void awaitAndPrintSummary() throws InterruptedException, IOException {
+    List<FileResult> finished = await();
+    if (manifest != null) {
+      manifest.save();
+    }
+    long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    Collections.sort(finished, Comparator.comparing(r -> r.file.getPath()));
+
+    int graphs = 0;
+    long nodes = 0;
+    long edges = 0;
+    long busyMillis = 0;
+    int skipped = 0;
+    List<FileResult> failures = new ArrayList<FileResult>();
+    for (FileResult r : finished) {
+      busyMillis += r.millis;
+      if (r.isSkipped()) {
+        skipped++;
+      } else if (r.isSuccess()) {
+        graphs += r.result.getGraphs();
+        nodes += r.result.getNodes();
+        edges += r.result.getEdges();
+        System.out.println(String.format("OK     %6d ms %4d graphs %7d nodes  %s", r.millis, r.result.getGraphs(),
+            r.result.getNodes(), r.file.getPath()));
+      } else {
+        failures.add(r);
+        System.out.println(String.format("FAILED %6d ms  %s: %s", r.millis, r.file.getPath(), r.error));
+      }
+    }
+
+    pfg.printUnhandledClasses();
+    System.out.println(String.format("Processed %d files (%d failed, %d up to date): %d graphs, %d nodes, %d edges.",
+        finished.size(), failures.size(), skipped, graphs, nodes, edges));
+    System.out.println(String.format("Wall time %d ms on %d threads, %.1fx parallel speedup.", wallMillis,
+        pool.getParallelism(), wallMillis == 0 ? 1.0 : (double) busyMillis / wallMillis));
+    for (FileResult r : failures) {
+      System.out.println("Failed: " + r.file.getPath());
+      r.error.printStackTrace(System.out);
+    }
+  }
+
+  /**
+   * Expands a directory, glob or plain file name into the files it names. A directory stands for the
+   * XML files directly inside it. Relative names are resolved against the given root.
+   * @param root
+   * @param pattern Directory, file or glob such as "Libs/GlobalActions/*.xml" or
+   *        "GameSDK/Levels/**&#47;mission_*.xml".
+   * @return Matching files, sorted by path.
+   * @throws IOException
+   */
+  public static List<File> expand(Path root, String pattern) throws IOException {
+    int firstGlob = indexOfGlob(pattern);
+    if (firstGlob < 0) {
+      Path path = root.resolve(pattern);
+      if (!Files.isDirectory(path)) {
+        return Collections.singletonList(path.toFile());
+      }
+      try (Stream<Path> files = Files.list(path)) {
+        return files.filter(p -> p.toString().toLowerCase().endsWith(".xml") && Files.isRegularFile(p))
+            .sorted().map(Path::toFile).collect(Collectors.toList());
+      }
+    }
+
+    // Walk from the deepest directory that has no wildcards in it.
+    int lastSeparator = Math.max(pattern.lastIndexOf('/', firstGlob), pattern.lastIndexOf('\\', firstGlob));
+    Path base = root.resolve(lastSeparator < 0 ? "" : pattern.substring(0, lastSeparator));
+    String glob = pattern.substring(lastSeparator + 1);
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    int depth = glob.contains("**") ? Integer.MAX_VALUE : glob.split("[/\\\\]").length;
+    try (Stream<Path> files = Files.walk(base, depth)) {
+      return files.filter(p -> Files.isRegularFile(p) && matcher.matches(base.relativize(p))).sorted()
+          .map(Path::toFile).collect(Collectors.toList());
+    }
+  }
+
+  private static int indexOfGlob(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '*' || c == '?' || c == '[' || c == '{') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
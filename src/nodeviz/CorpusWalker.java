@@ -0,0 +1,180 @@
+package nodeviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Finds every flowgraph-bearing XML file under an extracted game tree (levels, global actions,
+ * prefabs...). Files are handed on as soon as they are found, so parsing can start before the walk
+ * is over.
+ */
+public class CorpusWalker {
+
+  private static final Logger LOGGER = Logger.getLogger("CorpusWalker");
+
+  private static final byte[] FLOWGRAPH_TAG = "<FlowGraph".getBytes();
+  private static final String GRAPH_ROOT = "Graph";
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Path root;
+  private final List<Path> excluded = new ArrayList<Path>();
+  private int scanned;
+  private int found;
+
+  /**
+   * @param root Directory to walk.
+   * @param excluded Directories to skip, such as the output directory.
+   */
+  public CorpusWalker(Path root, Path... excluded) {
+    this.root = root;
+    for (Path p : excluded) {
+      this.excluded.add(p.toAbsolutePath().normalize());
+    }
+  }
+
+  /**
+   * Walks the tree and passes every file that contains flowgraphs to the sink, in the walking thread.
+   * @param sink
+   * @return Number of files found.
+   * @throws IOException
+   */
+  public int walk(Consumer<File> sink) throws IOException {
+    long start = System.currentTimeMillis();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (excluded.contains(dir.toAbsolutePath().normalize())) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (attrs.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".xml")) {
+          scanned++;
+          if (hasFlowGraphs(file)) {
+            found++;
+            sink.accept(file.toFile());
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        LOGGER.warning("Could not read " + file + ": " + e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    LOGGER.info(String.format("Found %d flowgraph files out of %d XML files in %d ms", found, scanned,
+        System.currentTimeMillis() - start));
+    return found;
+  }
+
+  /**
+   * Checks whether a file holds flowgraphs without parsing it. A standalone graph (global actions,
+   * flowgraph modules) is recognised from its root element in the first block. Anything else is
+   * scanned as raw bytes up to the first FlowGraph tag.
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public static boolean hasFlowGraphs(Path file) throws IOException {
+    byte[] buf = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(file)) {
+      int length = in.read(buf);
+      if (length <= 0) {
+        return false;
+      }
+      if (hasGraphRoot(buf, length)) {
+        return true;
+      }
+      // Keep the tail of each block so a tag split across two reads is still found.
+      int overlap = FLOWGRAPH_TAG.length - 1;
+      while (true) {
+        if (indexOf(buf, length, FLOWGRAPH_TAG) >= 0) {
+          return true;
+        }
+        if (length < overlap) {
+          return false;
+        }
+        System.arraycopy(buf, length - overlap, buf, 0, overlap);
+        int read = in.read(buf, overlap, buf.length - overlap);
+        if (read <= 0) {
+          return false;
+        }
+        length = overlap + read;
+      }
+    }
+  }
+
+  /**
+   * @return Whether the root element, skipping the prolog and comments, is a Graph.
+   */
+  private static boolean hasGraphRoot(byte[] buf, int length) {
+    int i = 0;
+    while (i < length) {
+      while (i < length && buf[i] != '<') {
+        i++;
+      }
+      if (i + 1 >= length) {
+        return false;
+      }
+      byte next = buf[i + 1];
+      if (next == '?' || next == '!') {
+        while (i < length && buf[i] != '>') {
+          i++;
+        }
+        continue;
+      }
+      int nameEnd = i + 1 + GRAPH_ROOT.length();
+      if (nameEnd >= length) {
+        return false;
+      }
+      for (int j = 0; j < GRAPH_ROOT.length(); j++) {
+        if (buf[i + 1 + j] != GRAPH_ROOT.charAt(j)) {
+          return false;
+        }
+      }
+      return buf[nameEnd] == ' ' || buf[nameEnd] == '>' || buf[nameEnd] == '\t' || buf[nameEnd] == '\r'
+          || buf[nameEnd] == '\n';
+    }
+    return false;
+  }
+
+  private static int indexOf(byte[] buf, int length, byte[] pattern) {
+    byte first = pattern[0];
+    int last = length - pattern.length;
+    outer: for (int i = 0; i <= last; i++) {
+      if (buf[i] != first) {
+        continue;
+      }
+      for (int j = 1; j < pattern.length; j++) {
+        if (buf[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  public int getScanned() {
+    return scanned;
+  }
+
+  public int getFound() {
+    return found;
+  }
+}
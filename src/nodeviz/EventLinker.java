@@ -0,0 +1,175 @@
+package nodeviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import xml.EventGraph;
+import xml.FlowGraphReader;
+import xml.IdDictionary;
+import xml.IdIndex;
+import xml.ParseFlowGraph;
+
+/**
+ * Links remote events across every file submitted into one {@link EventGraph}, instead of exporting
+ * each file's graphs. Files are scanned at the same time on a fork-join pool, each into its own
+ * partial graph, and the partials are merged once all are in. Nothing is skipped for being up to
+ * date, as every file is needed to link them all.
+ */
+public class EventLinker implements FileProcessor {
+  private static final Logger LOGGER = Logger.getLogger("EventLinker");
+
+  public static final String FILE_NAME = "remote_events.dot";
+
+  private final ParseFlowGraph pfg;
+  private final ForkJoinPool pool;
+  private final Path sourceDir;
+  private final File outputDir;
+  // Only added to by the thread submitting files.
+  private final List<CompletableFuture<EventGraph.Partial>> partials =
+      new ArrayList<CompletableFuture<EventGraph.Partial>>();
+  private final List<File> files = new ArrayList<File>();
+  private final long startTime = System.nanoTime();
+  private String chain;
+
+  /**
+   * @param pfg Parser whose input mode the files are read with.
+   * @param parallelism Number of files scanned at the same time.
+   * @param sourceDir Directory the files are named relative to.
+   * @param outputDir Directory the linked graph is written to.
+   */
+  public EventLinker(ParseFlowGraph pfg, int parallelism, Path sourceDir, File outputDir) {
+    this.pfg = pfg;
+    this.pool = new ForkJoinPool(parallelism);
+    this.sourceDir = sourceDir;
+    this.outputDir = outputDir;
+  }
+
+  /**
+   * Sets an event whose chain is printed with the summary.
+   * @param chain ID or name of the event.
+   */
+  public void setChain(String chain) {
+    this.chain = chain;
+  }
+
+  /**
+   * Queues a file to be scanned. Returns immediately.
+   * @param xml
+   */
+  @Override
+  public void submit(File xml) {
+    String name = sourceDir.toAbsolutePath().normalize().relativize(xml.toPath().toAbsolutePath().normalize())
+        .toString();
+    files.add(xml);
+    partials.add(CompletableFuture.supplyAsync(() -> {
+      try (FlowGraphReader r = pfg.open(xml)) {
+        return EventGraph.scan(r, name);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, pool));
+  }
+
+  /**
+   * Waits for every file to be scanned and merges them.
+   * @return The events of every file that could be read.
+   * @throws InterruptedException
+   */
+  public EventGraph await() throws InterruptedException {
+    EventGraph.Builder builder = new EventGraph.Builder();
+    for (int i = 0; i < partials.size(); i++) {
+      try {
+        builder.add(partials.get(i).get());
+      } catch (ExecutionException e) {
+        System.out.println(String.format("FAILED %s: %s", files.get(i).getPath(), e.getCause()));
+      }
+    }
+    long start = System.nanoTime();
+    EventGraph events = builder.build();
+    LOGGER.info(String.format("Merged %d files in %d ms", partials.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    return events;
+  }
+
+  /**
+   * Waits for every file, writes the linked graph to the output dir and prints what it links.
+   * @throws InterruptedException
+   * @throws IOException
+   */
+  @Override
+  public void awaitAndPrintSummary() throws InterruptedException, IOException {
+    EventGraph events = await();
+    File dotFile = new File(outputDir, FILE_NAME);
+    events.writeDot(dotFile.toPath(), pfg::getRemoteEventName);
+
+    int sent = 0;
+    int received = 0;
+    long pairs = 0;
+    int unreceived = 0;
+    int unsent = 0;
+    for (String id : events.getEventIds()) {
+      sent += events.getSenders(id).size();
+      received += events.getReceivers(id).size();
+      pairs += (long) events.getSenders(id).size() * events.getReceivers(id).size();
+      if (events.getReceivers(id).isEmpty()) {
+        unreceived++;
+      } else if (events.getSenders(id).isEmpty()) {
+        unsent++;
+      }
+    }
+    List<Set<EventGraph.Vertex>> groups = events.getLinkedGroups();
+    System.out.println(String.format("Linked %d senders and %d receivers of %d events in %d files, %d pairs in all: "
+        + "%d groups spanning several flowgraphs (largest %d vertices).", sent, received, events.getEventIds().size(),
+        partials.size(), pairs, groups.size(), groups.isEmpty() ? 0 : groups.get(0).size()));
+    System.out.println(String.format("%d events are sent but never received, %d received but never sent.",
+        unreceived, unsent));
+    System.out.println(String.format("Wall time %d ms on %d threads. Wrote %s", TimeUnit.NANOSECONDS.toMillis(
+        System.nanoTime() - startTime), pool.getParallelism(), dotFile.getPath()));
+    if (chain != null) {
+      printChain(events);
+    }
+  }
+
+  /**
+   * Prints each event the chosen one leads to, with where it is sent and received.
+   */
+  private void printChain(EventGraph events) {
+    List<String> ids = new ArrayList<String>();
+    // Event ids are kept unsigned, so a signed one is found too.
+    String eventId = IdDictionary.toUnsigned(chain);
+    if (events.getEventIds().contains(eventId)) {
+      ids.add(eventId);
+    } else {
+      for (IdIndex.Entry entry : pfg.getIdIndex().find(chain)) {
+        if (entry.getKind() == IdIndex.Kind.REMOTE_EVENT) {
+          ids.add(IdDictionary.toUnsigned(entry.getId()));
+        }
+      }
+    }
+    if (ids.isEmpty()) {
+      System.out.println("No remote event " + chain);
+    }
+    for (String id : ids) {
+      System.out.println("Chain of " + id + ":");
+      for (String event : events.getChain(id)) {
+        System.out.println(String.format("  %s \"%s\"", event, pfg.getRemoteEventName(event)));
+        for (EventGraph.Vertex e : events.getSenders(event)) {
+          System.out.println("    sent by " + e.getGraph() + " node " + e.getNodeId());
+        }
+        for (EventGraph.Vertex e : events.getReceivers(event)) {
+          System.out.println("    received by " + e.getGraph() + " node " + e.getNodeId());
+        }
+      }
+    }
+  }
+}
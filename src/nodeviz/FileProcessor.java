@@ -0,0 +1,24 @@
+package nodeviz;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Something that flowgraph files can be fed to, one at a time, and that reports on them at the end.
+ */
+public interface FileProcessor {
+
+  /**
+   * Queues a file for processing.
+   * @param xml
+   * @throws InterruptedException
+   */
+  void submit(File xml) throws InterruptedException;
+
+  /**
+   * Waits for all submitted files to finish and prints a summary.
+   * @throws InterruptedException
+   * @throws IOException
+   */
+  void awaitAndPrintSummary() throws InterruptedException, IOException;
+}
@@ -1,31 +1,317 @@
 package nodeviz;
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
+import xml.BuildManifest;
+import xml.DotRenderer;
+import xml.FlowGraph;
+import xml.FlowGraphCache;
+import xml.FlowGraphReader;
+import xml.FlowGraphSource;
+import xml.FlowGraphViewer;
+import xml.IdIndex;
+import xml.InputMode;
+import xml.Java2DRenderer;
 import xml.ParseFlowGraph;
+import xml.StringInterner;
 
 public class Main {
-  
+
   private static final String PREY_OUT_DIR = "D:\\PreyFiles\\FILES_PREY";
-  
+
   private static final String OUTPUT_DIR = "_PostProcessingOutput\\FlowGraphOutput";
   private static final String GlOBAL_ACTIONS_DIR = "libs\\globalactions";
+  private static final String MISSION_FILE =
+      "D:\\PreyFiles\\FILES_PREY\\GameSDK\\Levels\\Campaign\\EndGame\\mission_mission0.xml";
+
+  private static final int MAX_VIEWS = 8;
+
+  private static final String USAGE = "Usage: Main [-src dir] [-j threads] [-mode LINE|STAX|MAPPED] [-corpus] "
+      + "[-pipeline parse,build,export,render] [-force] [-nocache] [-intern file|corpus] [-dot exe] "
+      + "[-renderers n] [-batch nodes] [-svg] [-tiles] [-view] [-events] [-chain id|name] [-id id|name] [file|dir|glob ...]\n"
+      + "  With no files, parses the EndGame mission. Directories stand for the XML files in them, and\n"
+      + "  relative names are resolved against the source dir, e.g. " + GlOBAL_ACTIONS_DIR + " or\n"
+      + "  \"GameSDK/Levels/**/mission_*.xml\".\n"
+      + "  With -corpus, every flowgraph file found under the given directories (by default the whole\n"
+      + "  source dir) is processed, and the output mirrors the source tree.\n"
+      + "  With -pipeline, files go through separate parse, build, export and render stages with the\n"
+      + "  given number of workers each, instead of one task per file.\n"
+      + "  Files are skipped when neither they nor the dictionaries changed since the last run, and what\n"
+      + "  was written for them is still there and was written with the same output options, unless\n"
+      + "  -force is given. The hashes are kept in " + BuildManifest.FILE_NAME + " in the output dir.\n"
+      + "  Parsed graphs are cached in binary form under the output dir and reused while the source\n"
+      + "  file is unchanged, unless -nocache is given.\n"
+      + "  Repeated strings such as node classes and input names are shared within each file, or with\n"
+      + "  -intern corpus across all files, which takes less memory when many files are processed.\n"
+      + "  Images are drawn in process on -renderers threads (by default one per core), with every node\n"
+      + "  at its position in the editor.\n"
+      + "  With -dot, Graphviz renders them instead with the given dot executable, e.g.\n  "
+      + DotRenderer.DEFAULT_DOT_EXE + ", or just dot to find it on the PATH.\n"
+      + "  At most -renderers dot processes run at once, and each render may take longer the more nodes\n"
+      + "  and edges its graph has. Small graphs are rendered together, as many as add up to -batch\n"
+      + "  nodes per dot process (by default " + DotRenderer.DEFAULT_BATCH_NODES + ", 0 renders each on its own).\n"
+      + "  With -svg, each graph is written as an SVG file showing the same picture, instead of as a dot\n"
+      + "  file and an image.\n"
+      + "  With -tiles, graphs too large to draw at full size are cut into a Deep Zoom tile pyramid, a\n"
+      + "  .dzi file and a directory of tiles, instead of being scaled down into one image.\n"
+      + "  With -view, the graphs of the given files (by default the EndGame mission) are shown in\n"
+      + "  windows instead, up to " + MAX_VIEWS + " of them, with labels showing once zoomed in.\n"
+      + "  With -events, remote events are linked across all the given files (by default every file in\n"
+      + "  the source dir) instead, every sender to every receiver of the same event, and the linked\n"
+      + "  graph is written to " + EventLinker.FILE_NAME + " in the output dir. -chain also prints every\n"
+      + "  event the given one leads to.\n"
+      + "  With -id, prints what a library id stands for, or which ids have the given name, and exits.";
+
+  private static final String CACHE_DIR = "cache";
+
+  private static final int PIPELINE_QUEUE_CAPACITY = 64;
+  private static final int PIPELINE_MONITOR_SECONDS = 5;
 
   public static void main(String[] args) throws Exception {
-    Path preyOutDir = new File(PREY_OUT_DIR).toPath();
-    
-    File globalActionsDir = preyOutDir.resolve(GlOBAL_ACTIONS_DIR).toFile();
-    
-    
+    String sourceDir = PREY_OUT_DIR;
+    int threads = Runtime.getRuntime().availableProcessors();
+    InputMode inputMode = InputMode.STAX;
+    boolean corpus = false;
+    int[] pipelineWorkers = null;
+    boolean force = false;
+    boolean cache = true;
+    String lookupId = null;
+    boolean internCorpus = false;
+    String dotExe = null;
+    int renderers = 0;
+    int batchNodes = -1;
+    boolean svg = false;
+    boolean tiles = false;
+    boolean view = false;
+    boolean events = false;
+    String chain = null;
+    int firstInput = 0;
+    for (; firstInput < args.length && args[firstInput].startsWith("-"); firstInput++) {
+      switch (args[firstInput]) {
+        case "-src":
+          sourceDir = args[++firstInput];
+          break;
+        case "-j":
+          threads = Integer.parseInt(args[++firstInput]);
+          break;
+        case "-mode":
+          inputMode = InputMode.valueOf(args[++firstInput].toUpperCase());
+          break;
+        case "-corpus":
+          corpus = true;
+          break;
+        case "-force":
+          force = true;
+          break;
+        case "-nocache":
+          cache = false;
+          break;
+        case "-intern":
+          internCorpus = args[++firstInput].equalsIgnoreCase("corpus");
+          break;
+        case "-dot":
+          dotExe = args[++firstInput];
+          break;
+        case "-renderers":
+          renderers = Integer.parseInt(args[++firstInput]);
+          break;
+        case "-batch":
+          batchNodes = Integer.parseInt(args[++firstInput]);
+          break;
+        case "-svg":
+          svg = true;
+          break;
+        case "-tiles":
+          tiles = true;
+          break;
+        case "-view":
+          view = true;
+          break;
+        case "-events":
+          events = true;
+          break;
+        case "-chain":
+          events = true;
+          chain = args[++firstInput];
+          break;
+        case "-id":
+          lookupId = args[++firstInput];
+          break;
+        case "-pipeline":
+          String[] counts = args[++firstInput].split(",");
+          pipelineWorkers = new int[4];
+          for (int i = 0; i < pipelineWorkers.length; i++) {
+            pipelineWorkers[i] = Integer.parseInt(counts[Math.min(i, counts.length - 1)]);
+          }
+          break;
+        default:
+          System.out.println(USAGE);
+          return;
+      }
+    }
+
+    Path preyOutDir = new File(sourceDir).toPath();
+
     File outputDir = preyOutDir.resolve(OUTPUT_DIR).toFile();
     outputDir.mkdir();
     ParseFlowGraph pfg = new ParseFlowGraph(preyOutDir.toFile(), outputDir);
-    
-    pfg.parse(new File("D:\\PreyFiles\\FILES_PREY\\GameSDK\\Levels\\Campaign\\EndGame\\mission_mission0.xml"));
-    //pfg.parse(new File("D:\\PreyFiles\\FILES_PREY\\Libs\\GlobalActions\\global_dahlultimatums.xml"));
-    
-    //for (File f : globalActionsDir.listFiles()) {
-    //  pfg.parse(f);
-    //}
+    pfg.setInputMode(inputMode);
+    pfg.setSvgOutput(svg);
+    if (renderers > 0) {
+      pfg.setRenderer(new DotRenderer(renderers));
+      pfg.setDrawer(new Java2DRenderer(renderers));
+    }
+    if (dotExe != null) {
+      pfg.getRenderer().setDotExe(dotExe);
+      pfg.setDrawer(null);
+    }
+    if (tiles && pfg.getDrawer() != null) {
+      pfg.getDrawer().setTiled(true);
+    }
+    if (batchNodes >= 0) {
+      pfg.getRenderer().setBatchLimits(batchNodes, batchNodes > 0 ? DotRenderer.DEFAULT_BATCH_FILES : 1);
+    }
+
+    if (lookupId != null) {
+      IdIndex index = pfg.getIdIndex();
+      List<IdIndex.Entry> entries = index.lookup(lookupId);
+      if (entries.isEmpty()) {
+        entries = index.find(lookupId);
+      }
+      if (entries.isEmpty()) {
+        System.out.println("No id or name " + lookupId);
+      }
+      for (IdIndex.Entry entry : entries) {
+        System.out.println(entry);
+      }
+      return;
+    }
+
+    if (view) {
+      List<File> files = new ArrayList<File>();
+      for (int i = firstInput; i < args.length; i++) {
+        files.addAll(BatchProcessor.expand(preyOutDir, args[i]));
+      }
+      if (firstInput == args.length) {
+        files.add(new File(MISSION_FILE));
+      }
+      view(pfg, files);
+      return;
+    }
+
+    if (events && firstInput == args.length) {
+      // Events link across the whole game.
+      corpus = true;
+    }
+    if (!corpus && firstInput == args.length) {
+      pfg.parse(new File(MISSION_FILE));
+      //pfg.parse(new File("D:\\PreyFiles\\FILES_PREY\\Libs\\GlobalActions\\global_dahlultimatums.xml"));
+      pfg.printUnhandledClasses();
+      return;
+    }
+
+    // Most files will need most dictionaries, so load them all at once rather than as they come up.
+    pfg.preloadDictionaries();
+
+    FlowGraphSource source = inputMode;
+    StringInterner interner = null;
+    if (internCorpus) {
+      interner = new StringInterner();
+      source = inputMode.sharing(interner);
+      pfg.setInputMode(source);
+    }
+    FlowGraphCache graphCache = null;
+    if (cache) {
+      graphCache = new FlowGraphCache(new File(outputDir, CACHE_DIR), preyOutDir.toFile(), source);
+      graphCache.setInterner(interner);
+      pfg.setInputMode(graphCache);
+    }
+    if (corpus) {
+      pfg.setMirrorSourceTree(true);
+    }
+    BuildManifest manifest = new BuildManifest(outputDir, preyOutDir.toFile(), pfg.getDictionaryFiles());
+    manifest.setOutputSettings(pfg.getOutputSettings());
+    manifest.setForce(force);
+
+    FileProcessor processor;
+    if (events) {
+      EventLinker linker = new EventLinker(pfg, threads, preyOutDir, outputDir);
+      linker.setChain(chain);
+      processor = linker;
+    } else if (pipelineWorkers != null) {
+      Pipeline pipeline = new Pipeline(pfg, pipelineWorkers, PIPELINE_QUEUE_CAPACITY);
+      pipeline.setManifest(manifest);
+      pipeline.startMonitor(PIPELINE_MONITOR_SECONDS);
+      processor = pipeline;
+    } else {
+      BatchProcessor batch = new BatchProcessor(pfg, threads);
+      batch.setManifest(manifest);
+      processor = batch;
+    }
+
+    if (corpus) {
+      List<Path> roots = new ArrayList<Path>();
+      for (int i = firstInput; i < args.length; i++) {
+        roots.add(preyOutDir.resolve(args[i]));
+      }
+      if (roots.isEmpty()) {
+        roots.add(preyOutDir);
+      }
+      for (Path root : roots) {
+        new CorpusWalker(root, outputDir.toPath()).walk(f -> {
+          try {
+            processor.submit(f);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      }
+    } else {
+      for (int i = firstInput; i < args.length; i++) {
+        for (File f : BatchProcessor.expand(preyOutDir, args[i])) {
+          processor.submit(f);
+        }
+      }
+    }
+    processor.awaitAndPrintSummary();
+    if (pfg.getDrawer() != null) {
+      pfg.getDrawer().printSummary();
+    } else {
+      pfg.getRenderer().printSummary();
+    }
+    if (graphCache != null) {
+      System.out.println(String.format("Read %d files from the cache, %d from XML.", graphCache.getHits(),
+          graphCache.getMisses()));
+    }
+  }
+
+  /**
+   * Opens a window on each graph of the files, up to {@link #MAX_VIEWS}.
+   * @param pfg
+   * @param files
+   * @throws Exception
+   */
+  private static void view(ParseFlowGraph pfg, List<File> files) throws Exception {
+    FlowGraphViewer viewer = new FlowGraphViewer(pfg::getLabel);
+    int shown = 0;
+    int skipped = 0;
+    for (File f : files) {
+      try (FlowGraphReader r = pfg.open(f)) {
+        for (FlowGraph flowGraph = r.next(); flowGraph != null; flowGraph = r.next()) {
+          if (shown == MAX_VIEWS) {
+            skipped++;
+            continue;
+          }
+          viewer.show(ParseFlowGraph.createGraph(flowGraph.getNodes(), flowGraph.getEdges()),
+              flowGraph.getSourceFile(f).getName());
+          shown++;
+        }
+      }
+    }
+    if (skipped > 0) {
+      System.out.println(String.format("Showing %d graphs, %d more were left out.", shown, skipped));
+    }
   }
 }
@@ -0,0 +1,451 @@
+package nodeviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgrapht.Graph;
+
+import xml.BuildManifest;
+import xml.FlowGraph;
+import xml.FlowGraphEdge;
+import xml.FlowGraphNode;
+import xml.FlowGraphReader;
+import xml.ParseFlowGraph;
+
+/**
+ * Processes flowgraph files in stages (parse, build graph, export dot, render) connected by bounded
+ * queues. Every stage has its own workers, so parsing and labelling overlap with the slow external
+ * rendering, and a full queue blocks the stage feeding it so memory use stays flat.
+ */
+public class Pipeline implements FileProcessor {
+
+  private static final int POLL_MILLIS = 100;
+
+  /**
+   * Work done by a stage on one item. Results are passed on through the emitter, which blocks while
+   * the next stage's queue is full.
+   */
+  @FunctionalInterface
+  interface StageFunction<I, O> {
+    void process(I item, Emitter<O> out) throws Exception;
+  }
+
+  @FunctionalInterface
+  interface Emitter<O> {
+    void emit(O item) throws InterruptedException;
+  }
+
+  /**
+   * One stage of the pipeline, with its input queue and workers.
+   */
+  public class Stage<I extends Tracked, O extends Tracked> {
+    private final String name;
+    private final BlockingQueue<I> queue;
+    private final int workers;
+    private final StageFunction<I, O> function;
+    private final Stage<O, ?> next;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private volatile boolean inputClosed = false;
+
+    Stage(String name, int workers, int capacity, StageFunction<I, O> function, Stage<O, ?> next) {
+      this.name = name;
+      this.workers = workers;
+      this.queue = new ArrayBlockingQueue<I>(capacity);
+      this.function = function;
+      this.next = next;
+    }
+
+    void start() {
+      running.set(workers);
+      for (int i = 0; i < workers; i++) {
+        Thread t = new Thread(this::work, name + "-" + i);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+      }
+    }
+
+    void put(I item) throws InterruptedException {
+      queue.put(item);
+    }
+
+    /**
+     * Signals that no more items will be put. Workers finish what is queued, then close the next stage.
+     */
+    void closeInput() {
+      inputClosed = true;
+    }
+
+    void join() throws InterruptedException {
+      for (Thread t : threads) {
+        t.join();
+      }
+    }
+
+    private void work() {
+      Emitter<O> out = next == null ? item -> {} : next::put;
+      try {
+        while (true) {
+          I item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (item == null) {
+            if (inputClosed && queue.isEmpty()) {
+              break;
+            }
+            continue;
+          }
+          long start = System.nanoTime();
+          try {
+            function.process(item, out);
+            processed.incrementAndGet();
+            if (next == null || item instanceof SourceFile) {
+              // Nothing more will be done for this item.
+              item.getSource().release();
+            }
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Exception e) {
+            failed.incrementAndGet();
+            failures.add(String.format("%s failed on %s: %s", name, item, e));
+            item.getSource().fail();
+          }
+          busyNanos.addAndGet(System.nanoTime() - start);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (running.decrementAndGet() == 0 && next != null) {
+          next.closeInput();
+        }
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getWorkers() {
+      return workers;
+    }
+
+    public int getQueueDepth() {
+      return queue.size();
+    }
+
+    public long getProcessed() {
+      return processed.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    /**
+     * @return Items finished per second of wall time since the pipeline started.
+     */
+    public double getThroughput() {
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      return seconds <= 0 ? 0 : processed.get() / seconds;
+    }
+
+    /**
+     * @return Fraction of the stage's worker time spent processing rather than waiting.
+     */
+    public double getUtilization() {
+      double available = (double) (System.nanoTime() - startTime) * workers;
+      return available <= 0 ? 0 : busyNanos.get() / available;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[q=%d done=%d fail=%d %.1f/s %.0f%%]", name, getQueueDepth(), getProcessed(),
+          getFailed(), getThroughput(), getUtilization() * 100);
+    }
+  }
+
+  /**
+   * Anything passed between stages, which belongs to a source file.
+   */
+  interface Tracked {
+    SourceFile getSource();
+  }
+
+  /**
+   * A file going through the pipeline. Counts the graphs from it that are still in flight, and
+   * records the file in the manifest once they are all done.
+   */
+  private class SourceFile implements Tracked {
+    final File xml;
+    // One for the parse itself, plus one for each graph read from the file.
+    final AtomicInteger pending = new AtomicInteger(1);
+    final List<File> outputs = Collections.synchronizedList(new ArrayList<File>());
+    volatile boolean failed = false;
+    // Up to date, so the manifest already has it.
+    volatile boolean upToDate = false;
+
+    SourceFile(File xml) {
+      this.xml = xml;
+    }
+
+    @Override
+    public SourceFile getSource() {
+      return this;
+    }
+
+    void acquire() {
+      pending.incrementAndGet();
+    }
+
+    void fail() {
+      failed = true;
+      release();
+    }
+
+    void release() {
+      if (pending.decrementAndGet() > 0 || manifest == null || upToDate) {
+        return;
+      }
+      try {
+        if (failed) {
+          manifest.markFailed(xml);
+        } else {
+          manifest.markBuilt(xml, outputs);
+        }
+      } catch (IOException e) {
+        failures.add(String.format("Could not update manifest for %s: %s", xml, e));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return xml.getName();
+    }
+  }
+
+  /**
+   * A graph, or a step of its output, with the file it is named after.
+   */
+  private static class Job<T> implements Tracked {
+    final SourceFile source;
+    final File xml;
+    final T graph;
+
+    Job(SourceFile source, File xml, T graph) {
+      this.source = source;
+      this.xml = xml;
+      this.graph = graph;
+    }
+
+    @Override
+    public SourceFile getSource() {
+      return source;
+    }
+
+    @Override
+    public String toString() {
+      return xml.getName();
+    }
+  }
+
+  /**
+   * A graph waiting to be rendered, with the dot file it was exported to.
+   */
+  private static class Render {
+    final Graph<FlowGraphNode, FlowGraphEdge> graph;
+    final File dotFile;
+
+    Render(Graph<FlowGraphNode, FlowGraphEdge> graph, File dotFile) {
+      this.graph = graph;
+      this.dotFile = dotFile;
+    }
+  }
+
+  private final ParseFlowGraph pfg;
+  private final long startTime = System.nanoTime();
+  private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+  private final AtomicLong nodes = new AtomicLong();
+  private final AtomicInteger skipped = new AtomicInteger();
+  private final ConcurrentLinkedQueue<CompletableFuture<Void>> rendering =
+      new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+  private final Stage<SourceFile, Job<FlowGraph>> parseStage;
+  private final Stage<Job<FlowGraph>, Job<Graph<FlowGraphNode, FlowGraphEdge>>> buildStage;
+  private final Stage<Job<Graph<FlowGraphNode, FlowGraphEdge>>, Job<Render>> exportStage;
+  private final Stage<Job<Render>, Tracked> renderStage;
+  private final List<Stage<?, ?>> stages = new ArrayList<Stage<?, ?>>();
+  private ScheduledExecutorService monitor;
+  private BuildManifest manifest;
+
+  /**
+   * @param pfg Parser shared by all stages.
+   * @param workers Number of workers for the parse, build, export and render stages.
+   * @param capacity Size of the queue in front of each stage.
+   */
+  public Pipeline(ParseFlowGraph pfg, int[] workers, int capacity) {
+    this.pfg = pfg;
+    renderStage = new Stage<Job<Render>, Tracked>("render", workers[3], capacity, (job, out) -> {
+      // Renders complete in the background, and small graphs may wait to go to dot in a batch, so
+      // the file is only done once its render is.
+      CompletableFuture<File> render = pfg.submitRender(job.graph.graph, job.graph.dotFile, job.xml);
+      job.source.acquire();
+      rendering.add(render.handle((imgFile, e) -> {
+        if (e == null) {
+          job.source.outputs.add(imgFile);
+          job.source.release();
+        } else {
+          renderFailed(job, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        }
+        return null;
+      }));
+    }, null);
+    exportStage = new Stage<Job<Graph<FlowGraphNode, FlowGraphEdge>>, Job<Render>>("export", workers[2], capacity,
+        (job, out) -> {
+          if (pfg.isSvgOutput()) {
+            // Nothing left to render.
+            job.source.outputs.add(pfg.exportSvg(job.graph, job.xml));
+            job.source.release();
+            return;
+          }
+          File dotFile = pfg.exportDot(job.graph, job.xml);
+          job.source.outputs.add(dotFile);
+          out.emit(new Job<Render>(job.source, job.xml, new Render(job.graph, dotFile)));
+        }, renderStage);
+    buildStage = new Stage<Job<FlowGraph>, Job<Graph<FlowGraphNode, FlowGraphEdge>>>("build", workers[1], capacity,
+        (job, out) -> {
+          out.emit(new Job<Graph<FlowGraphNode, FlowGraphEdge>>(job.source, job.xml,
+              ParseFlowGraph.createGraph(job.graph.getNodes(), job.graph.getEdges())));
+        }, exportStage);
+    parseStage = new Stage<SourceFile, Job<FlowGraph>>("parse", workers[0], capacity, (source, out) -> {
+      if (manifest != null && manifest.isUpToDate(source.xml)) {
+        source.upToDate = true;
+        skipped.incrementAndGet();
+        return;
+      }
+      try (FlowGraphReader r = pfg.open(source.xml)) {
+        FlowGraph graph = r.next();
+        while (graph != null) {
+          nodes.addAndGet(graph.getNodeCount());
+          source.acquire();
+          out.emit(new Job<FlowGraph>(source, graph.getSourceFile(source.xml), graph));
+          graph = r.next();
+        }
+      }
+    }, buildStage);
+
+    stages.add(parseStage);
+    stages.add(buildStage);
+    stages.add(exportStage);
+    stages.add(renderStage);
+    for (Stage<?, ?> stage : stages) {
+      stage.start();
+    }
+  }
+
+  /**
+   * Counts a render that failed after the render stage passed it on to dot.
+   */
+  private void renderFailed(Job<Render> job, Throwable e) {
+    renderStage.failed.incrementAndGet();
+    failures.add(String.format("%s failed on %s: %s", renderStage.getName(), job, e));
+    job.source.fail();
+  }
+
+  /**
+   * Sets the manifest used to skip files that have not changed since they were last built. Must be
+   * called before any file is submitted.
+   * @param manifest
+   */
+  public void setManifest(BuildManifest manifest) {
+    this.manifest = manifest;
+  }
+
+  /**
+   * Prints the state of every stage at a fixed rate until the pipeline finishes.
+   * @param periodSeconds
+   */
+  public void startMonitor(int periodSeconds) {
+    monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "pipeline-monitor");
+      t.setDaemon(true);
+      return t;
+    });
+    monitor.scheduleAtFixedRate(() -> System.out.println(getStatus()), periodSeconds, periodSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return Queue depth, progress and throughput of every stage on one line.
+   */
+  public String getStatus() {
+    StringBuilder sb = new StringBuilder();
+    for (Stage<?, ?> stage : stages) {
+      sb.append(stage).append(' ');
+    }
+    return sb.toString().trim();
+  }
+
+  public List<Stage<?, ?>> getStages() {
+    return stages;
+  }
+
+  /**
+   * Queues a file for parsing, blocking while the parse queue is full.
+   */
+  @Override
+  public void submit(File xml) throws InterruptedException {
+    parseStage.put(new SourceFile(xml));
+  }
+
+  @Override
+  public void awaitAndPrintSummary() throws InterruptedException, IOException {
+    parseStage.closeInput();
+    for (Stage<?, ?> stage : stages) {
+      stage.join();
+    }
+    // Nothing more will join the last batch.
+    pfg.getRenderer().flush();
+    for (CompletableFuture<Void> r : rendering) {
+      try {
+        r.get();
+      } catch (ExecutionException e) {
+        // Already recorded as a failure.
+      }
+    }
+    if (manifest != null) {
+      manifest.save();
+    }
+    if (monitor != null) {
+      monitor.shutdownNow();
+    }
+    long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+    pfg.printUnhandledClasses();
+    for (Stage<?, ?> stage : stages) {
+      System.out.println(String.format("%-7s %3d workers %7d done %5d failed %8.1f/s %4.0f%% busy", stage.getName(),
+          stage.getWorkers(), stage.getProcessed(), stage.getFailed(), stage.getThroughput(),
+          stage.getUtilization() * 100));
+    }
+    System.out.println(String.format("Processed %d files (%d failed, %d up to date): %d graphs, %d nodes in %d ms.",
+        parseStage.getProcessed() + parseStage.getFailed(), parseStage.getFailed(), skipped.get(),
+        buildStage.getProcessed(), nodes.get(), wallMillis));
+    for (String failure : failures) {
+      System.out.println(failure);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package nodeviz;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import xml.FlowGraph;
+import xml.FlowGraphCache;
+import xml.FlowGraphReader;
+import xml.FlowGraphSource;
+import xml.InputMode;
+import xml.StringInterner;
+
+/**
+ * Compares the throughput of the flowgraph input modes on the same files, along with the heap the
+ * parsed graphs take and the time spent collecting garbage while reading.
+ * Usage: ReaderBenchmark [-n iterations] file...
+ */
+public class ReaderBenchmark {
+
+  private static final int DEFAULT_ITERATIONS = 5;
+
+  public static void main(String[] args) throws Exception {
+    int iterations = DEFAULT_ITERATIONS;
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-n")) {
+        iterations = Integer.parseInt(args[++i]);
+      } else {
+        files.add(new File(args[i]));
+      }
+    }
+    if (files.isEmpty()) {
+      System.out.println("Usage: ReaderBenchmark [-n iterations] file...");
+      return;
+    }
+
+    long bytes = 0;
+    for (File f : files) {
+      bytes += f.length();
+    }
+
+    for (InputMode mode : InputMode.values()) {
+      run(mode.toString(), mode, files, iterations, bytes);
+    }
+    // Strings shared by every file and pass instead of within each file.
+    run("SHARED", InputMode.MAPPED.sharing(new StringInterner()), files, iterations, bytes);
+
+    // The first pass through the cache writes it, the timed passes read it back.
+    Path cacheDir = Files.createTempDirectory("fgcache");
+    try {
+      run("CACHED", new FlowGraphCache(cacheDir.toFile(), new File("."), InputMode.MAPPED), files, iterations, bytes);
+    } finally {
+      for (File f : cacheDir.toFile().listFiles()) {
+        f.delete();
+      }
+      Files.delete(cacheDir);
+    }
+  }
+
+  private static void run(String name, FlowGraphSource source, List<File> files, int iterations, long bytes)
+      throws Exception {
+    // First pass warms up the JIT and the page cache.
+    long[] counts = readAll(source, files, null);
+    long best = Long.MAX_VALUE;
+    long gcCount = getGcCount();
+    long gcMillis = getGcMillis();
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      readAll(source, files, null);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    gcCount = getGcCount() - gcCount;
+    gcMillis = getGcMillis() - gcMillis;
+    double ms = best / 1e6;
+    System.out.println(String.format("%-6s %d graphs, %d nodes, %d edges: %.1f ms (%.1f MB/s of XML)", name,
+        counts[0], counts[1], counts[2], ms, bytes / 1e6 / (ms / 1e3)));
+
+    // Heap taken by the parsed graphs while they are all kept.
+    long before = getUsedHeap();
+    List<FlowGraph> kept = new ArrayList<FlowGraph>();
+    readAll(source, files, kept);
+    long retained = getUsedHeap() - before;
+    System.out.println(String.format("       retained %.1f MB (%d bytes/node), GC %d collections %d ms over %d passes",
+        retained / 1e6, counts[1] == 0 ? 0 : retained / counts[1], gcCount, gcMillis, iterations));
+    kept.clear();
+  }
+
+  /**
+   * Reads every graph of every file.
+   * @param keep If not null, every graph is added to it.
+   * @return Number of graphs, nodes and edges read.
+   */
+  private static long[] readAll(FlowGraphSource source, List<File> files, List<FlowGraph> keep) throws Exception {
+    long[] counts = new long[3];
+    for (File f : files) {
+      try (FlowGraphReader r = source.open(f)) {
+        FlowGraph graph = r.next();
+        while (graph != null) {
+          counts[0]++;
+          counts[1] += graph.getNodeCount();
+          counts[2] += graph.getEdges().size();
+          if (keep != null) {
+            keep.add(graph);
+          }
+          graph = r.next();
+        }
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * @return Heap in use after a full collection.
+   */
+  private static long getUsedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long getGcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+}
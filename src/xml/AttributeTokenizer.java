@@ -0,0 +1,554 @@
+package xml;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Single pass tokenizer for the attributes of one XML element. The caller names the attributes it
+ * wants up front, and their values are kept as slices of the input until asked for, so lines that
+ * are skipped cost no allocation. Works over characters or over raw bytes of a (mapped) buffer.
+ *
+ * Attribute names are matched ignoring case. Values come back the way an XML parser reads them:
+ * entity and character references are replaced, and line breaks and tabs become spaces. Instances
+ * are reusable but not thread-safe.
+ *
+ * Given a {@link StringInterner}, short values and attribute names are shared. The last strings seen
+ * are remembered by the hash of their characters, so a value that repeats is found without decoding
+ * it again.
+ */
+public class AttributeTokenizer {
+  private static final int RECENT_VALUES = 1024;
+  private static final int RECENT_NAMES = 256;
+
+  private final String[] keys;
+  private final int[] starts;
+  private final int[] ends;
+  private final StringInterner interner;
+  private final String[] recentValues;
+  private final String[] recentNames;
+
+  private CharSequence chars;
+  private ByteBuffer bytes;
+  private int limit;
+
+  private int nameStart;
+  private int nameEnd;
+  private boolean endElement;
+  private int position;
+  private boolean selfClosing;
+
+  /**
+   * @param keys Lower case names of the attributes to keep. Values are looked up by their index in
+   *        this list.
+   */
+  public AttributeTokenizer(String... keys) {
+    this(null, keys);
+  }
+
+  /**
+   * @param interner Where decoded values and attribute names are shared, or null to not share them.
+   * @param keys Lower case names of the attributes to keep. Values are looked up by their index in
+   *        this list.
+   */
+  public AttributeTokenizer(StringInterner interner, String... keys) {
+    this.keys = keys;
+    this.starts = new int[keys.length];
+    this.ends = new int[keys.length];
+    this.interner = interner;
+    this.recentValues = interner != null ? new String[RECENT_VALUES] : null;
+    this.recentNames = interner != null ? new String[RECENT_NAMES] : null;
+  }
+
+  /**
+   * Points the tokenizer at the first element of a line.
+   * @param line
+   * @return This tokenizer.
+   */
+  public AttributeTokenizer reset(CharSequence line) {
+    this.chars = line;
+    this.bytes = null;
+    return findElement(0, line.length());
+  }
+
+  /**
+   * Points the tokenizer at the first element in a range of bytes.
+   * @param buf
+   * @param start Absolute index of the first byte to look at.
+   * @param end Absolute index after the last byte to look at.
+   * @return This tokenizer.
+   */
+  public AttributeTokenizer reset(ByteBuffer buf, int start, int end) {
+    this.chars = null;
+    this.bytes = buf;
+    return findElement(start, end);
+  }
+
+  private AttributeTokenizer findElement(int start, int end) {
+    limit = end;
+    nameStart = nameEnd = -1;
+    endElement = false;
+    selfClosing = false;
+    for (int i = 0; i < keys.length; i++) {
+      starts[i] = -1;
+    }
+    int i = start;
+    while (i < limit && charAt(i) != '<') {
+      i++;
+    }
+    i++;
+    if (i < limit && charAt(i) == '/') {
+      endElement = true;
+      i++;
+    }
+    nameStart = i;
+    while (i < limit && isNameChar(charAt(i))) {
+      i++;
+    }
+    nameEnd = i;
+    position = i;
+    return this;
+  }
+
+  /**
+   * @param name
+   * @return Whether the current element is a start (or empty) element with the given name.
+   */
+  public boolean isElement(String name) {
+    return !endElement && nameEquals(name);
+  }
+
+  /**
+   * @param name
+   * @return Whether the current element is an end element with the given name.
+   */
+  public boolean isEndElement(String name) {
+    return endElement && nameEquals(name);
+  }
+
+  private boolean nameEquals(String name) {
+    if (nameEnd - nameStart != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (charAt(nameStart + i) != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Scans the attributes of the current element, recording where each wanted value is.
+   * @return This tokenizer.
+   */
+  public AttributeTokenizer readAttributes() {
+    scan(null);
+    return this;
+  }
+
+  /**
+   * Scans the attributes of the current element and copies all of them into a map, with lower case
+   * keys.
+   * @param into
+   */
+  public void readAllAttributes(Map<String, String> into) {
+    scan(into::put);
+  }
+
+  /**
+   * Scans the attributes of the current element and passes each of them on, with lower case keys.
+   * @param into
+   */
+  public void readAllAttributes(BiConsumer<String, String> into) {
+    scan(into);
+  }
+
+  private void scan(BiConsumer<String, String> into) {
+    int i = position;
+    while (i < limit) {
+      char c = charAt(i);
+      if (c == '>') {
+        selfClosing = charAt(i - 1) == '/';
+        i++;
+        break;
+      }
+      if (!isNameChar(c)) {
+        i++;
+        continue;
+      }
+      int keyStart = i;
+      while (i < limit && isNameChar(charAt(i))) {
+        i++;
+      }
+      int keyEnd = i;
+      while (i < limit && isWhitespace(charAt(i))) {
+        i++;
+      }
+      if (i >= limit || charAt(i) != '=') {
+        continue;
+      }
+      i++;
+      while (i < limit && isWhitespace(charAt(i))) {
+        i++;
+      }
+      if (i >= limit) {
+        break;
+      }
+      char quote = charAt(i);
+      if (quote != '"' && quote != '\'') {
+        continue;
+      }
+      int valueStart = ++i;
+      while (i < limit && charAt(i) != quote) {
+        i++;
+      }
+      if (into != null) {
+        into.accept(share(keyStart, keyEnd, true, recentNames), share(valueStart, i, false, recentValues));
+      } else {
+        int k = keyIndex(keyStart, keyEnd);
+        if (k >= 0) {
+          starts[k] = valueStart;
+          ends[k] = i;
+        }
+      }
+      i++;
+    }
+    position = i;
+  }
+
+  private int keyIndex(int start, int end) {
+    for (int k = 0; k < keys.length; k++) {
+      String key = keys[k];
+      if (key.length() != end - start) {
+        continue;
+      }
+      int j = 0;
+      while (j < key.length() && Character.toLowerCase(charAt(start + j)) == key.charAt(j)) {
+        j++;
+      }
+      if (j == key.length()) {
+        return k;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return Index just past the end of the element tag, once the attributes have been read.
+   */
+  public int getEnd() {
+    return position;
+  }
+
+  /**
+   * @return Whether the element tag ended with "/>", once the attributes have been read.
+   */
+  public boolean isSelfClosing() {
+    return selfClosing;
+  }
+
+  public boolean has(int key) {
+    return starts[key] >= 0;
+  }
+
+  /**
+   * @param key Index of the wanted attribute.
+   * @return Start of the value in the input, or -1 if the attribute was not present.
+   */
+  public int getStart(int key) {
+    return starts[key];
+  }
+
+  /**
+   * @param key Index of the wanted attribute.
+   * @return End of the value in the input.
+   */
+  public int getEnd(int key) {
+    return ends[key];
+  }
+
+  /**
+   * Decodes a wanted value.
+   * @param key Index of the wanted attribute.
+   * @return The value, or null if the attribute was not present.
+   */
+  public String value(int key) {
+    if (starts[key] < 0) {
+      return null;
+    }
+    return share(starts[key], ends[key], false, recentValues);
+  }
+
+  /**
+   * Compares a wanted value, without decoding it unless it has references or line breaks.
+   * @param key Index of the wanted attribute.
+   * @param expected
+   * @return
+   */
+  public boolean valueEquals(int key, String expected) {
+    int start = starts[key];
+    if (start < 0) {
+      return false;
+    }
+    if (!isPlain(start, ends[key])) {
+      return expected.equals(decode(start, ends[key]));
+    }
+    if (ends[key] - start != expected.length()) {
+      return false;
+    }
+    for (int i = 0; i < expected.length(); i++) {
+      if (charAt(start + i) != expected.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses a comma separated list of numbers, such as a node position, without decoding the value.
+   * Missing components are left untouched.
+   * @param key Index of the wanted attribute.
+   * @param out
+   */
+  public void parseFloats(int key, float[] out) {
+    int i = starts[key];
+    if (i < 0) {
+      return;
+    }
+    int end = ends[key];
+    for (int n = 0; n < out.length && i < end; n++) {
+      int componentEnd = i;
+      while (componentEnd < end && charAt(componentEnd) != ',') {
+        componentEnd++;
+      }
+      out[n] = parseFloat(i, componentEnd);
+      i = componentEnd + 1;
+    }
+  }
+
+  private float parseFloat(int start, int end) {
+    int i = start;
+    while (i < end && charAt(i) == ' ') {
+      i++;
+    }
+    boolean negative = false;
+    if (i < end && (charAt(i) == '-' || charAt(i) == '+')) {
+      negative = charAt(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean fraction = false;
+    for (; i < end; i++) {
+      char c = charAt(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (fraction) {
+          scale++;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (i < end || digits > 17 || scale > 22) {
+      // Exponents and other unusual forms go through the JDK parser.
+      return Float.parseFloat(decode(start, end).trim());
+    }
+    double value = mantissa / POWERS_OF_TEN[scale];
+    return (float) (negative ? -value : value);
+  }
+
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private char charAt(int i) {
+    if (chars != null) {
+      return chars.charAt(i);
+    }
+    return (char) (bytes.get(i) & 0xff);
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  /**
+   * @return Whether a slice reads the same once decoded, apart from its encoding.
+   */
+  private boolean isPlain(int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = charAt(i);
+      if (c == '&' || c == '\t' || c == '\n' || c == '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isNameChar(char c) {
+    return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == ':'
+        || c == '-' || c == '.';
+  }
+
+  /**
+   * Decodes a slice of the input, sharing the string if there is an interner.
+   * @param start
+   * @param end
+   * @param lower Whether to lower case the slice, as for attribute names.
+   * @param recent Strings seen last, by hash.
+   * @return
+   */
+  private String share(int start, int end, boolean lower, String[] recent) {
+    int length = end - start;
+    if (interner == null || length > StringInterner.MAX_LENGTH) {
+      return lower ? lowerCase(start, end) : decode(start, end);
+    }
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      char c = charAt(i);
+      if (c == '&' || c == '\t' || c == '\n' || c == '\r') {
+        // Decodes to something else than the slice, so it can't be matched against recent strings.
+        return interner.intern(lower ? lowerCase(start, end) : decode(start, end));
+      }
+      hash = 31 * hash + (lower ? Character.toLowerCase(c) : c);
+    }
+    int slot = (hash ^ (hash >>> 16)) & (recent.length - 1);
+    String s = recent[slot];
+    if (s != null && matches(s, start, end, lower)) {
+      return s;
+    }
+    s = interner.intern(lower ? lowerCase(start, end) : decode(start, end));
+    recent[slot] = s;
+    return s;
+  }
+
+  private boolean matches(String s, int start, int end, boolean lower) {
+    if (s.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = charAt(start + i);
+      if (bytes != null && c >= 0x80) {
+        // Part of a UTF-8 sequence, which decodes to something other than this char.
+        return false;
+      }
+      if ((lower ? Character.toLowerCase(c) : c) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String lowerCase(int start, int end) {
+    if (!isPlain(start, end)) {
+      return decode(start, end).toLowerCase(Locale.ROOT);
+    }
+    char[] key = new char[end - start];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = Character.toLowerCase(charAt(start + i));
+    }
+    return new String(key);
+  }
+
+  private String decode(int start, int end) {
+    String s;
+    if (chars != null) {
+      s = chars.subSequence(start, end).toString();
+    } else {
+      s = decodeBytes(start, end);
+    }
+    return isPlain(start, end) ? s : unescape(s);
+  }
+
+  private String decodeBytes(int start, int end) {
+    char[] ascii = new char[end - start];
+    for (int i = 0; i < ascii.length; i++) {
+      byte b = bytes.get(start + i);
+      if (b < 0) {
+        // Not plain ASCII, decode the slice as UTF-8.
+        ByteBuffer slice = bytes.duplicate();
+        slice.limit(end).position(start);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+      }
+      ascii[i] = (char) b;
+    }
+    return new String(ascii);
+  }
+
+  /**
+   * Replaces references and normalizes whitespace in an attribute value, as an XML parser does. A
+   * line break, whether \r\n, \r or \n, and a tab each become one space; references to line breaks
+   * are kept. References that can't be read are left as they are.
+   * @param s
+   * @return
+   */
+  static String unescape(String s) {
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\r') {
+        if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+          i++;
+        }
+        sb.append(' ');
+      } else if (c == '\n' || c == '\t') {
+        sb.append(' ');
+      } else if (c == '&') {
+        int semicolon = s.indexOf(';', i + 1);
+        int codePoint = semicolon < 0 ? -1 : reference(s, i + 1, semicolon);
+        if (codePoint < 0) {
+          sb.append(c);
+        } else {
+          sb.appendCodePoint(codePoint);
+          i = semicolon;
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return The character a reference stands for, or -1 if it isn't one.
+   */
+  private static int reference(String s, int start, int end) {
+    String name = s.substring(start, end);
+    switch (name) {
+      case "amp":
+        return '&';
+      case "lt":
+        return '<';
+      case "gt":
+        return '>';
+      case "quot":
+        return '"';
+      case "apos":
+        return '\'';
+      default:
+        break;
+    }
+    if (name.length() < 2 || name.charAt(0) != '#') {
+      return -1;
+    }
+    try {
+      int codePoint = name.charAt(1) == 'x' ? Integer.parseInt(name.substring(2), 16)
+          : Integer.parseInt(name.substring(1));
+      return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Records a content hash for every input that went into the output directory, so that unchanged
+ * files can be skipped on the next run. A change to any dictionary file invalidates every graph,
+ * since it can change their labels, and so does a change to what is written for each graph. A file
+ * is also rebuilt if any of the files written for it is gone.
+ *
+ * Hashes are only recomputed when a file's size or modification time differs from the recorded one.
+ */
+public class BuildManifest {
+  public static final String FILE_NAME = "manifest.properties";
+
+  private static final Logger LOGGER = Logger.getLogger("BuildManifest");
+
+  private static final String DICTIONARY_PREFIX = "dict.";
+  private static final String SOURCE_PREFIX = "src.";
+  private static final String OUTPUT_PREFIX = "out.";
+  private static final String OUTPUT_SETTINGS = "output";
+  // Separates the files written for a source, which can't be part of a file name.
+  private static final String OUTPUT_SEPARATOR = "|";
+
+  /**
+   * Recorded state of one input file.
+   */
+  private static class Entry {
+    final long size;
+    final long modified;
+    final String hash;
+
+    Entry(long size, long modified, String hash) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+
+    static Entry parse(String value) {
+      String[] parts = value.split(",", 3);
+      return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+    }
+
+    boolean matches(File f) {
+      return f.length() == size && f.lastModified() == modified;
+    }
+
+    @Override
+    public String toString() {
+      return size + "," + modified + "," + hash;
+    }
+  }
+
+  private final File manifestFile;
+  private final Path outDir;
+  private final Path sourceDir;
+  private final Map<String, Entry> dictionaries = new ConcurrentHashMap<String, Entry>();
+  private final Map<String, Entry> sources = new ConcurrentHashMap<String, Entry>();
+  // Files written for each source, relative to the out directory.
+  private final Map<String, List<String>> outputs = new ConcurrentHashMap<String, List<String>>();
+  private String outputSettings = "";
+  // Hashes taken when checking a file, recorded once it has been built.
+  private final Map<String, Entry> pending = new ConcurrentHashMap<String, Entry>();
+  private boolean force = false;
+
+  /**
+   * Loads the manifest from the out directory, if there is one, and checks the dictionaries against
+   * it.
+   * @param outDir
+   * @param sourceDir
+   * @param dictionaryFiles Every file the labels are built from.
+   * @throws IOException
+   */
+  public BuildManifest(File outDir, File sourceDir, List<File> dictionaryFiles) throws IOException {
+    this.manifestFile = new File(outDir, FILE_NAME);
+    this.outDir = outDir.getCanonicalFile().toPath();
+    this.sourceDir = sourceDir.getCanonicalFile().toPath();
+
+    Map<String, Entry> recordedDictionaries = new TreeMap<String, Entry>();
+    if (manifestFile.exists()) {
+      Properties p = new Properties();
+      try (InputStream in = Files.newInputStream(manifestFile.toPath())) {
+        p.load(in);
+      }
+      for (String key : p.stringPropertyNames()) {
+        if (key.startsWith(DICTIONARY_PREFIX)) {
+          recordedDictionaries.put(key.substring(DICTIONARY_PREFIX.length()), Entry.parse(p.getProperty(key)));
+        } else if (key.startsWith(SOURCE_PREFIX)) {
+          sources.put(key.substring(SOURCE_PREFIX.length()), Entry.parse(p.getProperty(key)));
+        } else if (key.startsWith(OUTPUT_PREFIX)) {
+          String files = p.getProperty(key);
+          outputs.put(key.substring(OUTPUT_PREFIX.length()), files.isEmpty() ? Collections.<String>emptyList()
+              : Arrays.asList(files.split("\\" + OUTPUT_SEPARATOR)));
+        }
+      }
+      outputSettings = p.getProperty(OUTPUT_SETTINGS, "");
+    }
+
+    for (File f : dictionaryFiles) {
+      String key = getKey(f);
+      Entry recorded = recordedDictionaries.get(key);
+      dictionaries.put(key, f.exists() ? check(f, recorded) : new Entry(0, 0, ""));
+    }
+    if (!hashesEqual(dictionaries, recordedDictionaries)) {
+      if (!sources.isEmpty()) {
+        LOGGER.info("Dictionaries changed, every graph will be rebuilt");
+      }
+      sources.clear();
+    }
+  }
+
+  private static boolean hashesEqual(Map<String, Entry> a, Map<String, Entry> b) {
+    if (!a.keySet().equals(b.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, Entry> e : a.entrySet()) {
+      if (!e.getValue().hash.equals(b.get(e.getKey()).hash)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the current state of a file, reusing the recorded hash if its size and time are unchanged.
+   */
+  private static Entry check(File f, Entry recorded) throws IOException {
+    if (recorded != null && recorded.matches(f)) {
+      return recorded;
+    }
+    long size = f.length();
+    long modified = f.lastModified();
+    return new Entry(size, modified, ContentHash.of(f));
+  }
+
+  private String getKey(File f) throws IOException {
+    Path path = f.getCanonicalFile().toPath();
+    if (path.startsWith(sourceDir)) {
+      path = sourceDir.relativize(path);
+    }
+    return path.toString().replace('\\', '/');
+  }
+
+  /**
+   * Sets what is written for each graph and where. If it differs from what the manifest was recorded
+   * with, every file counts as out of date.
+   * @param settings
+   */
+  public void setOutputSettings(String settings) {
+    if (!settings.equals(outputSettings)) {
+      if (!sources.isEmpty()) {
+        LOGGER.info("Output settings changed, every graph will be rebuilt");
+      }
+      sources.clear();
+      outputs.clear();
+    }
+    outputSettings = settings;
+  }
+
+  /**
+   * Sets whether every file counts as out of date. The manifest is still updated.
+   * @param force
+   */
+  public void setForce(boolean force) {
+    this.force = force;
+  }
+
+  /**
+   * Checks whether a file was built from the same contents and dictionaries before, and everything
+   * written for it is still there. Can be called from several threads at once.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  public boolean isUpToDate(File xml) throws IOException {
+    String key = getKey(xml);
+    Entry recorded = sources.get(key);
+    Entry current = check(xml, recorded);
+    pending.put(key, current);
+    return !force && recorded != null && recorded.hash.equals(current.hash) && outputsExist(key);
+  }
+
+  private boolean outputsExist(String key) {
+    List<String> files = outputs.get(key);
+    if (files == null) {
+      return false;
+    }
+    for (String f : files) {
+      if (!Files.exists(outDir.resolve(f))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records that everything from a file was built successfully.
+   * @param xml
+   * @param written Every file written for it.
+   * @throws IOException
+   */
+  public void markBuilt(File xml, Collection<File> written) throws IOException {
+    String key = getKey(xml);
+    Entry current = pending.remove(key);
+    List<String> files = new ArrayList<String>();
+    for (File f : written) {
+      files.add(outDir.relativize(f.getCanonicalFile().toPath()).toString().replace('\\', '/'));
+    }
+    Collections.sort(files);
+    outputs.put(key, files);
+    sources.put(key, current != null ? current : check(xml, null));
+  }
+
+  /**
+   * Forgets a file, so it is rebuilt next time.
+   * @param xml
+   * @throws IOException
+   */
+  public void markFailed(File xml) throws IOException {
+    String key = getKey(xml);
+    pending.remove(key);
+    sources.remove(key);
+    outputs.remove(key);
+  }
+
+  /**
+   * Writes the manifest back to the out directory.
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    // Sorted, so the manifest diffs cleanly between runs.
+    List<String> lines = new ArrayList<String>();
+    lines.add("# Content hashes of the inputs of " + manifestFile.getParent());
+    lines.add(OUTPUT_SETTINGS + "=" + escape(outputSettings));
+    for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(dictionaries).entrySet()) {
+      lines.add(escape(DICTIONARY_PREFIX + e.getKey()) + "=" + e.getValue());
+    }
+    for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(sources).entrySet()) {
+      lines.add(escape(SOURCE_PREFIX + e.getKey()) + "=" + e.getValue());
+    }
+    for (Map.Entry<String, List<String>> e : new TreeMap<String, List<String>>(outputs).entrySet()) {
+      lines.add(escape(OUTPUT_PREFIX + e.getKey()) + "=" + escape(String.join(OUTPUT_SEPARATOR, e.getValue())));
+    }
+    File tmp = new File(manifestFile.getPath() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+      for (String line : lines) {
+        out.write((line + "\n").getBytes(StandardCharsets.ISO_8859_1));
+      }
+    }
+    Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Escapes a key or value for a properties file.
+   */
+  private static String escape(String key) {
+    StringBuilder sb = new StringBuilder(key.length());
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c == ' ' || c == '=' || c == ':' || c == '\\' || c == '#' || c == '!') {
+        sb.append('\\');
+      }
+      if (c > 0x7e) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,54 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes file contents, to tell when inputs have changed between runs.
+ */
+public class ContentHash {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private ContentHash() {
+  }
+
+  /**
+   * @param file
+   * @return Hex SHA-256 of the file contents.
+   * @throws IOException
+   */
+  public static String of(File file) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buf = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      int read = in.read(buf);
+      while (read >= 0) {
+        digest.update(buf, 0, read);
+        read = in.read(buf);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
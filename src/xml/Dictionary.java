@@ -0,0 +1,96 @@
+package xml;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only lookup from an id in a game library to its name.
+ */
+public interface Dictionary {
+
+  /**
+   * @param id
+   * @return The name for the id, or null if the id is unknown or has no name.
+   */
+  String get(String id);
+
+  boolean containsKey(String id);
+
+  int size();
+
+  /**
+   * Calls the action for every id and its name, in no particular order.
+   * @param action
+   */
+  void forEach(BiConsumer<String, String> action);
+
+  /**
+   * @param map
+   * @return A dictionary backed by the given map, which must not change afterwards.
+   */
+  static Dictionary of(Map<String, String> map) {
+    return new Dictionary() {
+      @Override
+      public String get(String id) {
+        return map.get(id);
+      }
+
+      @Override
+      public boolean containsKey(String id) {
+        return map.containsKey(id);
+      }
+
+      @Override
+      public int size() {
+        return map.size();
+      }
+
+      @Override
+      public void forEach(BiConsumer<String, String> action) {
+        map.forEach(action);
+      }
+    };
+  }
+
+  /**
+   * @param dictionary Dictionary whose ids are written one way only.
+   * @return A dictionary where a numeric id is found whether it is looked up signed or unsigned, like
+   *         in an {@link IdDictionary}.
+   */
+  static Dictionary numericIds(Dictionary dictionary) {
+    return new Dictionary() {
+      private String key(String id) {
+        if (dictionary.containsKey(id) || !IdDictionary.isId(id)) {
+          return id;
+        }
+        try {
+          long n = IdDictionary.parseId(id);
+          String unsigned = Long.toUnsignedString(n);
+          return dictionary.containsKey(unsigned) ? unsigned : Long.toString(n);
+        } catch (NumberFormatException e) {
+          return id;
+        }
+      }
+
+      @Override
+      public String get(String id) {
+        return dictionary.get(key(id));
+      }
+
+      @Override
+      public boolean containsKey(String id) {
+        return dictionary.containsKey(key(id));
+      }
+
+      @Override
+      public int size() {
+        return dictionary.size();
+      }
+
+      @Override
+      public void forEach(BiConsumer<String, String> action) {
+        dictionary.forEach(action);
+      }
+    };
+  }
+}
@@ -0,0 +1,464 @@
+package xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+/**
+ * All the dictionaries compiled into one memory mapped file, so they don't have to be read from the
+ * game libraries on every run. The snapshot records the size, modification time and content hash of
+ * every library it was made from, and is not used once any of them changes.
+ *
+ * After the header come a string table (an offset for every string, then their UTF-8 bytes) and the
+ * dictionaries. Each dictionary is a list of key and value string indices sorted by key, which is
+ * binary searched on lookup. Dictionaries keyed by 64-bit ids keep the ids themselves instead of key
+ * strings. Strings are only decoded when a lookup reaches them.
+ */
+public class DictionarySnapshot {
+  public static final String FILE_NAME = "dictionaries.snapshot";
+
+  private static final Logger LOGGER = Logger.getLogger("DictionarySnapshot");
+
+  private static final int MAGIC = 0x44494354; // "DICT"
+  private static final int VERSION = 2;
+
+  private static final int NULL_STRING = -1;
+  private static final int NO_ENTRY = -2;
+  private static final long MISSING = -1;
+
+  private final ByteBuffer buf;
+  private final int stringCount;
+  private final int offsetsStart;
+  private final int dataStart;
+  private final String[] strings;
+  private final Map<String, Dictionary> dictionaries = new HashMap<String, Dictionary>();
+
+  private DictionarySnapshot(ByteBuffer buf) {
+    this.buf = buf;
+    stringCount = buf.getInt();
+    offsetsStart = buf.position();
+    dataStart = offsetsStart + (stringCount + 1) * 4;
+    strings = new String[stringCount];
+    buf.position(dataStart + buf.getInt(offsetsStart + stringCount * 4));
+
+    int dictionaryCount = buf.getInt();
+    for (int i = 0; i < dictionaryCount; i++) {
+      String name = string(buf.getInt());
+      int nullKeyValue = buf.getInt();
+      int size = buf.getInt();
+      dictionaries.put(name, new SnapshotDictionary(buf.position(), size, nullKeyValue));
+      buf.position(buf.position() + size * 8);
+    }
+    int idDictionaryCount = buf.getInt();
+    for (int i = 0; i < idDictionaryCount; i++) {
+      String name = string(buf.getInt());
+      int size = buf.getInt();
+      dictionaries.put(name, new SnapshotIdDictionary(buf.position(), size));
+      buf.position(buf.position() + size * 12);
+    }
+  }
+
+  /**
+   * Maps a snapshot file, if it is in the current format and was made from the given libraries. The
+   * header is checked before the file is mapped, so that an out of date snapshot is never left mapped
+   * while it is replaced. Libraries that were only touched since have their new modification time
+   * written into the header, so they aren't hashed again on every run.
+   * @param snapshotFile
+   * @param sources Every library the dictionaries are read from, in a fixed order.
+   * @return The snapshot, or null if it is missing or out of date.
+   * @throws IOException
+   */
+  public static DictionarySnapshot open(File snapshotFile, List<File> sources) throws IOException {
+    if (!snapshotFile.exists() || snapshotFile.length() > Integer.MAX_VALUE) {
+      return null;
+    }
+    long length = snapshotFile.length();
+    // Where in the header each touched library's modification time is, and its new time.
+    Map<Long, Long> touched = new LinkedHashMap<Long, Long>();
+    long position = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      int sourceCount = in.readInt();
+      position += 12;
+      if (sourceCount != sources.size()) {
+        LOGGER.info("Dictionary libraries were added or removed, snapshot is out of date");
+        return null;
+      }
+      for (File source : sources) {
+        byte[] path = readBytes(in, length);
+        long size = in.readLong();
+        long modified = in.readLong();
+        byte[] hash = readBytes(in, length);
+        if (!new String(path, StandardCharsets.UTF_8).equals(source.getPath())
+            || !matches(source, size, modified, new String(hash, StandardCharsets.UTF_8))) {
+          LOGGER.info("Dictionary library changed, snapshot is out of date: " + source);
+          return null;
+        }
+        position += 4 + path.length + 8;
+        if (size != MISSING && modified != source.lastModified()) {
+          touched.put(position, source.lastModified());
+        }
+        position += 8 + 4 + hash.length;
+      }
+    } catch (EOFException e) {
+      LOGGER.warning("Could not read dictionary snapshot " + snapshotFile + ": " + e);
+      return null;
+    }
+
+    if (!touched.isEmpty()) {
+      try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+        for (Map.Entry<Long, Long> t : touched.entrySet()) {
+          file.seek(t.getKey());
+          file.writeLong(t.getValue());
+        }
+      } catch (IOException e) {
+        LOGGER.warning("Could not update dictionary snapshot " + snapshotFile + ": " + e);
+      }
+    }
+
+    try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r")) {
+      FileChannel channel = file.getChannel();
+      // The mapping stays valid after the file is closed.
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buf.position((int) position);
+      return new DictionarySnapshot(buf);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      LOGGER.warning("Could not read dictionary snapshot " + snapshotFile + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutputStream, String)} as its bytes.
+   * @param in
+   * @param length Size of the file, which no string can be longer than.
+   */
+  private static byte[] readBytes(DataInputStream in, long length) throws IOException {
+    int size = in.readInt();
+    if (size < 0 || size > length) {
+      throw new EOFException("String of " + size + " bytes");
+    }
+    byte[] bytes = new byte[size];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Checks a library against what was recorded, only hashing it if its modification time changed.
+   */
+  private static boolean matches(File source, long size, long modified, String hash) throws IOException {
+    if (!source.exists()) {
+      return size == MISSING;
+    }
+    if (size != source.length()) {
+      return false;
+    }
+    return modified == source.lastModified() || hash.equals(ContentHash.of(source));
+  }
+
+  /**
+   * Writes a snapshot of the given dictionaries. The file is replaced in one step, so a snapshot
+   * being read by another run is never seen half written.
+   * @param snapshotFile
+   * @param sources Every library the dictionaries were read from, in the order later passed to open.
+   * @param dictionaries Dictionary contents by name.
+   * @param idDictionaries Dictionaries keyed by id, by name.
+   * @throws IOException
+   */
+  public static void write(File snapshotFile, List<File> sources, Map<String, ? extends Map<String, String>> dictionaries,
+      Map<String, IdDictionary> idDictionaries) throws IOException {
+    // Sorted entries, and the strings they use in order of first use.
+    Map<String, Integer> stringIndex = new LinkedHashMap<String, Integer>();
+    Map<String, List<int[]>> entries = new LinkedHashMap<String, List<int[]>>();
+    for (Map.Entry<String, ? extends Map<String, String>> dictionary : dictionaries.entrySet()) {
+      intern(stringIndex, dictionary.getKey());
+      Map<String, String> map = dictionary.getValue();
+      List<int[]> sorted = new ArrayList<int[]>(map.size() + 1);
+      // An entry without an id is kept apart, ahead of the sorted ones.
+      sorted.add(new int[] { map.containsKey(null) ? intern(stringIndex, map.get(null)) : NO_ENTRY });
+      TreeMap<String, String> byKey = new TreeMap<String, String>();
+      for (Map.Entry<String, String> e : map.entrySet()) {
+        if (e.getKey() != null) {
+          byKey.put(e.getKey(), e.getValue());
+        }
+      }
+      for (Map.Entry<String, String> e : byKey.entrySet()) {
+        sorted.add(new int[] { intern(stringIndex, e.getKey()), intern(stringIndex, e.getValue()) });
+      }
+      entries.put(dictionary.getKey(), sorted);
+    }
+    Map<String, long[]> idEntries = new LinkedHashMap<String, long[]>();
+    for (Map.Entry<String, IdDictionary> dictionary : idDictionaries.entrySet()) {
+      intern(stringIndex, dictionary.getKey());
+      long[] ids = dictionary.getValue().sortedIds();
+      for (long id : ids) {
+        intern(stringIndex, dictionary.getValue().get(id));
+      }
+      idEntries.put(dictionary.getKey(), ids);
+    }
+
+    File tmp = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(sources.size());
+      for (File source : sources) {
+        writeString(out, source.getPath());
+        if (source.exists()) {
+          out.writeLong(source.length());
+          out.writeLong(source.lastModified());
+          writeString(out, ContentHash.of(source));
+        } else {
+          out.writeLong(MISSING);
+          out.writeLong(0);
+          writeString(out, "");
+        }
+      }
+
+      List<byte[]> encoded = new ArrayList<byte[]>(stringIndex.size());
+      for (String s : stringIndex.keySet()) {
+        encoded.add(s.getBytes(StandardCharsets.UTF_8));
+      }
+      out.writeInt(encoded.size());
+      int offset = 0;
+      for (byte[] bytes : encoded) {
+        out.writeInt(offset);
+        offset += bytes.length;
+      }
+      out.writeInt(offset);
+      for (byte[] bytes : encoded) {
+        out.write(bytes);
+      }
+
+      out.writeInt(entries.size());
+      for (Map.Entry<String, List<int[]>> dictionary : entries.entrySet()) {
+        List<int[]> sorted = dictionary.getValue();
+        out.writeInt(stringIndex.get(dictionary.getKey()));
+        out.writeInt(sorted.get(0)[0]);
+        out.writeInt(sorted.size() - 1);
+        for (int[] entry : sorted.subList(1, sorted.size())) {
+          out.writeInt(entry[0]);
+          out.writeInt(entry[1]);
+        }
+      }
+      out.writeInt(idEntries.size());
+      for (Map.Entry<String, long[]> dictionary : idEntries.entrySet()) {
+        IdDictionary ids = idDictionaries.get(dictionary.getKey());
+        out.writeInt(stringIndex.get(dictionary.getKey()));
+        out.writeInt(dictionary.getValue().length);
+        for (long id : dictionary.getValue()) {
+          out.writeLong(id);
+          out.writeInt(intern(stringIndex, ids.get(id)));
+        }
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp.toPath());
+      throw e;
+    }
+    Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static int intern(Map<String, Integer> stringIndex, String s) {
+    if (s == null) {
+      return NULL_STRING;
+    }
+    Integer index = stringIndex.get(s);
+    if (index == null) {
+      index = stringIndex.size();
+      stringIndex.put(s, index);
+    }
+    return index;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * @param name
+   * @return The named dictionary, or an empty one if the snapshot doesn't have it.
+   */
+  public Dictionary get(String name) {
+    Dictionary dictionary = dictionaries.get(name);
+    return dictionary != null ? dictionary : Dictionary.of(Collections.<String, String> emptyMap());
+  }
+
+  /**
+   * Decodes a string from the table. Decoded strings are kept, so each is only decoded once. Several
+   * threads may decode the same string, which is harmless.
+   */
+  private String string(int index) {
+    if (index == NULL_STRING) {
+      return null;
+    }
+    String s = strings[index];
+    if (s == null) {
+      int start = buf.getInt(offsetsStart + index * 4);
+      int end = buf.getInt(offsetsStart + (index + 1) * 4);
+      byte[] bytes = new byte[end - start];
+      // Absolute reads, so lookups from several threads don't share a position.
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buf.get(dataStart + start + i);
+      }
+      s = new String(bytes, StandardCharsets.UTF_8);
+      strings[index] = s;
+    }
+    return s;
+  }
+
+  /**
+   * One dictionary in the snapshot: a run of key and value indices sorted by key.
+   */
+  private class SnapshotDictionary implements Dictionary {
+    private final int start;
+    private final int size;
+    private final int nullKeyValue;
+
+    SnapshotDictionary(int start, int size, int nullKeyValue) {
+      this.start = start;
+      this.size = size;
+      this.nullKeyValue = nullKeyValue;
+    }
+
+    /**
+     * @return Position of the entry with the given key, or -1.
+     */
+    private int find(String id) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = string(buf.getInt(start + mid * 8)).compareTo(id);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return start + mid * 8;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public String get(String id) {
+      if (id == null) {
+        return nullKeyValue == NO_ENTRY ? null : string(nullKeyValue);
+      }
+      int entry = find(id);
+      return entry < 0 ? null : string(buf.getInt(entry + 4));
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+      return id == null ? nullKeyValue != NO_ENTRY : find(id) >= 0;
+    }
+
+    @Override
+    public int size() {
+      return nullKeyValue == NO_ENTRY ? size : size + 1;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+      if (nullKeyValue != NO_ENTRY) {
+        action.accept(null, string(nullKeyValue));
+      }
+      for (int i = 0; i < size; i++) {
+        action.accept(string(buf.getInt(start + i * 8)), string(buf.getInt(start + i * 8 + 4)));
+      }
+    }
+  }
+
+  /**
+   * One dictionary keyed by id in the snapshot: a run of ids and value indices sorted by id.
+   */
+  private class SnapshotIdDictionary implements Dictionary {
+    private final int start;
+    private final int size;
+
+    SnapshotIdDictionary(int start, int size) {
+      this.start = start;
+      this.size = size;
+    }
+
+    /**
+     * @return Position of the entry with the given id, or -1.
+     */
+    private int find(String id) {
+      if (!IdDictionary.isId(id)) {
+        return -1;
+      }
+      long key;
+      try {
+        key = IdDictionary.parseId(id);
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        long midKey = buf.getLong(start + mid * 12);
+        if (midKey < key) {
+          low = mid + 1;
+        } else if (midKey > key) {
+          high = mid - 1;
+        } else {
+          return start + mid * 12;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public String get(String id) {
+      int entry = find(id);
+      return entry < 0 ? null : string(buf.getInt(entry + 8));
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+      return find(id) >= 0;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+      for (int i = 0; i < size; i++) {
+        action.accept(Long.toUnsignedString(buf.getLong(start + i * 12)), string(buf.getInt(start + i * 12 + 8)));
+      }
+    }
+  }
+}
@@ -0,0 +1,539 @@
+package xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Runs Graphviz to render dot files to images. At most a given number of dot processes run at once,
+ * however many threads ask for renders, and each gets a timeout that grows with the size of its
+ * graph, so large levels get the time they need while a stuck process is still stopped.
+ *
+ * Starting dot costs more than laying out most flowgraphs, which have a few dozen nodes, so small
+ * graphs are collected into batches that a single dot process renders with -O, up to a total number
+ * of nodes. Large graphs still get a process of their own.
+ *
+ * What dot prints to stderr is read as it runs, so a chatty process can't block on a full pipe, and
+ * is logged afterwards. Every process is timed for {@link #printSummary()}.
+ */
+public class DotRenderer {
+  private static final Logger LOGGER = Logger.getLogger("DotRenderer");
+
+  public static final String DEFAULT_DOT_EXE = "D:\\PreyFiles\\graphviz-2.38\\release\\bin\\dot.exe";
+
+  private static final String FORMAT = "jpg";
+  private static final long DEFAULT_BASE_TIMEOUT_MILLIS = 10000;
+  private static final long DEFAULT_MILLIS_PER_NODE = 20;
+  private static final long DEFAULT_MILLIS_PER_EDGE = 10;
+  private static final long DEFAULT_MAX_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+  public static final int DEFAULT_BATCH_NODES = 4000;
+  // Keeps the command line well under the Windows limit of 32k characters.
+  public static final int DEFAULT_BATCH_FILES = 100;
+  private static final long DEFAULT_LINGER_MILLIS = 200;
+
+  // Only the start of stderr is kept, in case dot prints a warning per node.
+  private static final int MAX_STDERR_BYTES = 8192;
+  private static final long STDERR_WAIT_MILLIS = 1000;
+  private static final int SLOWEST_SHOWN = 5;
+  private static final File NULL_FILE = new File(
+      System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+
+  // Threads reading the stderr of running processes.
+  private static final ExecutorService STDERR_READERS = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "dot-stderr");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // Starts batches that stopped filling up.
+  private static final ScheduledExecutorService LINGER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "dot-batches");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /**
+   * Outcome of one dot process, which may have rendered several graphs.
+   */
+  public static class Result {
+    private final List<File> dotFiles;
+    private final int nodes;
+    private final int edges;
+    private final long millis;
+    private final int exitCode;
+    private final boolean timedOut;
+    private final String stderr;
+    private final long timeoutMillis;
+
+    Result(List<File> dotFiles, int nodes, int edges, long millis, int exitCode, boolean timedOut, String stderr,
+        long timeoutMillis) {
+      this.dotFiles = dotFiles;
+      this.nodes = nodes;
+      this.edges = edges;
+      this.millis = millis;
+      this.exitCode = exitCode;
+      this.timedOut = timedOut;
+      this.stderr = stderr;
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return The first dot file of the process.
+     */
+    public File getDotFile() {
+      return dotFiles.get(0);
+    }
+
+    /**
+     * @return Every dot file the process rendered.
+     */
+    public List<File> getDotFiles() {
+      return Collections.unmodifiableList(dotFiles);
+    }
+
+    public long getMillis() {
+      return millis;
+    }
+
+    public boolean isSuccess() {
+      return !timedOut && exitCode == 0;
+    }
+
+    public boolean isTimedOut() {
+      return timedOut;
+    }
+
+    /**
+     * @return The exit code of dot, or -1 if it timed out.
+     */
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    /**
+     * @return What dot wrote to stderr, possibly cut short.
+     */
+    public String getStderr() {
+      return stderr;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%6d ms %7d nodes %7d edges  %s%s%s", millis, nodes, edges, getDotFile().getPath(),
+          dotFiles.size() > 1 ? " and " + (dotFiles.size() - 1) + " more" : "",
+          timedOut ? " (timed out)" : exitCode != 0 ? " (exit code " + exitCode + ")" : "");
+    }
+  }
+
+  /**
+   * A graph waiting to be rendered.
+   */
+  private static class Job {
+    final File dotFile;
+    final File imgFile;
+    final int nodes;
+    final int edges;
+    final CompletableFuture<Result> done = new CompletableFuture<Result>();
+
+    Job(File dotFile, File imgFile, int nodes, int edges) {
+      this.dotFile = dotFile;
+      this.imgFile = imgFile;
+      this.nodes = nodes;
+      this.edges = edges;
+    }
+  }
+
+  private String dotExe = DEFAULT_DOT_EXE;
+  private final ExecutorService processes;
+  private final int maxProcesses;
+  private long baseTimeoutMillis = DEFAULT_BASE_TIMEOUT_MILLIS;
+  private long millisPerNode = DEFAULT_MILLIS_PER_NODE;
+  private long millisPerEdge = DEFAULT_MILLIS_PER_EDGE;
+  private long maxTimeoutMillis = DEFAULT_MAX_TIMEOUT_MILLIS;
+  private int maxBatchNodes = DEFAULT_BATCH_NODES;
+  private int maxBatchFiles = DEFAULT_BATCH_FILES;
+  private long lingerMillis = DEFAULT_LINGER_MILLIS;
+  private final ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<Result>();
+
+  // The batch being filled, guarded by this.
+  private List<Job> batch = new ArrayList<Job>();
+  private int batchNodes;
+  private long batchNumber;
+
+  /**
+   * @param maxProcesses Number of dot processes allowed to run at once.
+   */
+  public DotRenderer(int maxProcesses) {
+    this.maxProcesses = maxProcesses;
+    this.processes = Executors.newFixedThreadPool(maxProcesses, r -> {
+      Thread t = new Thread(r, "dot");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @param dotExe Path of the dot executable, or just "dot" to find it on the PATH.
+   */
+  public void setDotExe(String dotExe) {
+    this.dotExe = dotExe;
+  }
+
+  public String getDotExe() {
+    return dotExe;
+  }
+
+  /**
+   * Sets how long dot may take: the base time, plus an amount per node and edge, up to a maximum.
+   * A batch gets the base time once and the per node and edge time of all its graphs.
+   * @param baseMillis
+   * @param millisPerNode
+   * @param millisPerEdge
+   * @param maxMillis
+   */
+  public void setTimeouts(long baseMillis, long millisPerNode, long millisPerEdge, long maxMillis) {
+    this.baseTimeoutMillis = baseMillis;
+    this.millisPerNode = millisPerNode;
+    this.millisPerEdge = millisPerEdge;
+    this.maxTimeoutMillis = maxMillis;
+  }
+
+  /**
+   * Sets how small graphs are put together into one dot process. Graphs with more than half of the
+   * nodes a batch may hold are rendered on their own.
+   * @param maxNodes Total nodes in a batch before it is started.
+   * @param maxFiles Files in a batch before it is started, which keeps the command line short. 1 turns
+   *        batching off.
+   */
+  public void setBatchLimits(int maxNodes, int maxFiles) {
+    this.maxBatchNodes = maxNodes;
+    this.maxBatchFiles = maxFiles;
+  }
+
+  /**
+   * @param lingerMillis How long a batch that isn't full waits for more graphs before it is started.
+   */
+  public void setLingerMillis(long lingerMillis) {
+    this.lingerMillis = lingerMillis;
+  }
+
+  /**
+   * @param nodes
+   * @param edges
+   * @return How long a graph of this size may take to render.
+   */
+  public long getTimeoutMillis(int nodes, int edges) {
+    return Math.min(maxTimeoutMillis, baseTimeoutMillis + millisPerNode * nodes + millisPerEdge * edges);
+  }
+
+  /**
+   * Renders a dot file with its nodes at their given positions, and waits for it. Anything waiting
+   * in the current batch is started along with it.
+   * @param dotFile
+   * @param imgFile
+   * @param nodes Number of nodes in the graph, for the timeout.
+   * @param edges Number of edges in the graph, for the timeout.
+   * @return The outcome.
+   * @throws IOException If dot could not be started, failed or took too long.
+   * @throws InterruptedException
+   */
+  public Result render(File dotFile, File imgFile, int nodes, int edges) throws IOException, InterruptedException {
+    CompletableFuture<Result> result = submit(dotFile, imgFile, nodes, edges);
+    flush();
+    return await(result);
+  }
+
+  /**
+   * Queues a dot file to be rendered. Small graphs are held back to go to dot together with others,
+   * until the batch is full, {@link #flush()} is called or no more come for a while. Large graphs
+   * are started on their own straight away.
+   * @param dotFile
+   * @param imgFile
+   * @param nodes Number of nodes in the graph, for batching and the timeout.
+   * @param edges Number of edges in the graph, for the timeout.
+   * @return Completes with the outcome of the dot process that rendered the graph, or with an
+   *         IOException if it failed.
+   */
+  public CompletableFuture<Result> submit(File dotFile, File imgFile, int nodes, int edges) {
+    Job job = new Job(dotFile, imgFile, nodes, edges);
+    if (maxBatchFiles <= 1 || nodes > maxBatchNodes / 2) {
+      start(Collections.singletonList(job));
+      return job.done;
+    }
+    List<Job> full = null;
+    synchronized (this) {
+      batch.add(job);
+      batchNodes += nodes;
+      if (batchNodes >= maxBatchNodes || batch.size() >= maxBatchFiles) {
+        full = takeBatch();
+      } else if (batch.size() == 1) {
+        long number = batchNumber;
+        LINGER.schedule(() -> flush(number), lingerMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (full != null) {
+      start(full);
+    }
+    return job.done;
+  }
+
+  /**
+   * Starts the current batch without waiting for it to fill up.
+   */
+  public void flush() {
+    List<Job> jobs;
+    synchronized (this) {
+      jobs = takeBatch();
+    }
+    if (!jobs.isEmpty()) {
+      start(jobs);
+    }
+  }
+
+  /**
+   * Starts a batch that has waited long enough, unless it was already started.
+   */
+  private void flush(long number) {
+    List<Job> jobs;
+    synchronized (this) {
+      if (number != batchNumber) {
+        return;
+      }
+      jobs = takeBatch();
+    }
+    start(jobs);
+  }
+
+  private List<Job> takeBatch() {
+    List<Job> jobs = batch;
+    batch = new ArrayList<Job>();
+    batchNodes = 0;
+    batchNumber++;
+    return jobs;
+  }
+
+  /**
+   * Waits for a render.
+   * @param result
+   * @return The outcome.
+   * @throws IOException If the render failed.
+   * @throws InterruptedException
+   */
+  public static Result await(CompletableFuture<Result> result) throws IOException, InterruptedException {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private void start(List<Job> jobs) {
+    processes.execute(() -> {
+      try {
+        if (jobs.size() == 1) {
+          renderAlone(jobs.get(0));
+        } else {
+          renderBatch(jobs);
+        }
+      } catch (Throwable t) {
+        for (Job job : jobs) {
+          job.done.completeExceptionally(t);
+        }
+      }
+    });
+  }
+
+  private void renderAlone(Job job) throws InterruptedException {
+    List<String> command = getCommand();
+    try {
+      command.add(job.dotFile.getCanonicalPath());
+      command.add("-o");
+      command.add(job.imgFile.getCanonicalPath());
+      Result result = run(command, Collections.singletonList(job.dotFile), job.nodes, job.edges,
+          getTimeoutMillis(job.nodes, job.edges));
+      check(result, job.dotFile.getName());
+      job.done.complete(result);
+    } catch (IOException e) {
+      job.done.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Renders several graphs with one dot process, each to an image next to its dot file that is then
+   * moved into place. If dot fails on the batch, its graphs are rendered again one by one, so only
+   * the broken ones fail.
+   */
+  private void renderBatch(List<Job> jobs) throws InterruptedException {
+    List<String> command = getCommand();
+    command.add("-O");
+    List<File> dotFiles = new ArrayList<File>(jobs.size());
+    int nodes = 0;
+    int edges = 0;
+    long timeout = baseTimeoutMillis;
+    Result result;
+    try {
+      for (Job job : jobs) {
+        command.add(job.dotFile.getCanonicalPath());
+        dotFiles.add(job.dotFile);
+        nodes += job.nodes;
+        edges += job.edges;
+        timeout += millisPerNode * job.nodes + millisPerEdge * job.edges;
+      }
+      result = run(command, dotFiles, nodes, edges, Math.min(maxTimeoutMillis, timeout));
+      check(result, jobs.size() + " graphs starting with " + jobs.get(0).dotFile.getName());
+    } catch (IOException e) {
+      LOGGER.warning(e.getMessage() + ", rendering them one at a time.");
+      for (Job job : jobs) {
+        renderAlone(job);
+      }
+      return;
+    }
+    for (Job job : jobs) {
+      try {
+        Files.move(new File(job.dotFile.getPath() + "." + FORMAT).toPath(), job.imgFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        job.done.complete(result);
+      } catch (IOException e) {
+        job.done.completeExceptionally(e);
+      }
+    }
+  }
+
+  private List<String> getCommand() {
+    List<String> command = new ArrayList<String>();
+    command.add(dotExe);
+    command.add("-Kneato");
+    command.add("-n");
+    command.add("-T" + FORMAT);
+    return command;
+  }
+
+  private Result run(List<String> command, List<File> dotFiles, int nodes, int edges, long timeout)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Process p = null;
+    try {
+      p = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.appendTo(NULL_FILE)).start();
+      CompletableFuture<String> stderr = readAsync(p.getErrorStream());
+      boolean finished = p.waitFor(timeout, TimeUnit.MILLISECONDS);
+      if (!finished) {
+        p.destroyForcibly().waitFor();
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Result result = new Result(dotFiles, nodes, edges, millis, finished ? p.exitValue() : -1, !finished,
+          getStderr(stderr), timeout);
+      results.add(result);
+      return result;
+    } finally {
+      if (p != null && p.isAlive()) {
+        // Interrupted while waiting.
+        p.destroyForcibly();
+      }
+    }
+  }
+
+  /**
+   * Logs what dot said and throws if it didn't succeed.
+   */
+  private static void check(Result result, String what) throws IOException {
+    if (!result.getStderr().isEmpty()) {
+      LOGGER.warning("dot said, for " + what + ":\n" + result.getStderr().trim());
+    }
+    if (result.isTimedOut()) {
+      throw new IOException("dot did not finish " + what + " (" + result.nodes + " nodes, " + result.edges
+          + " edges) within " + result.timeoutMillis + " ms");
+    }
+    if (!result.isSuccess()) {
+      throw new IOException("dot failed on " + what + " with exit code " + result.getExitCode());
+    }
+    System.out.println("Finished executing dot convert in " + result.millis + " ms.");
+  }
+
+  /**
+   * Waits a little for the rest of stderr. Anything dot started may still hold it open after dot
+   * itself was stopped.
+   */
+  private static String getStderr(CompletableFuture<String> stderr) throws InterruptedException {
+    try {
+      return stderr.get(STDERR_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      return "";
+    }
+  }
+
+  private static CompletableFuture<String> readAsync(InputStream in) {
+    return CompletableFuture.supplyAsync(() -> {
+      ByteArrayOutputStream kept = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      try (InputStream s = in) {
+        int n;
+        while ((n = s.read(buf)) >= 0) {
+          kept.write(buf, 0, Math.max(0, Math.min(n, MAX_STDERR_BYTES - kept.size())));
+        }
+      } catch (IOException e) {
+        // The process went away, keep what was read.
+      }
+      return new String(kept.toByteArray(), Charset.defaultCharset());
+    }, STDERR_READERS);
+  }
+
+  /**
+   * @return Every dot process so far, in the order they finished.
+   */
+  public List<Result> getResults() {
+    return new ArrayList<Result>(results);
+  }
+
+  /**
+   * Prints how many graphs were rendered in how many processes, how long they took and which were
+   * slowest or failed.
+   */
+  public void printSummary() {
+    List<Result> done = getResults();
+    if (done.isEmpty()) {
+      return;
+    }
+    long totalMillis = 0;
+    int graphs = 0;
+    List<Result> failed = new ArrayList<Result>();
+    for (Result r : done) {
+      totalMillis += r.millis;
+      if (r.isSuccess()) {
+        graphs += r.dotFiles.size();
+      } else {
+        failed.add(r);
+      }
+    }
+    System.out.println(String.format("Rendered %d graphs in %d dot processes (%d failed), up to %d at once: "
+        + "%d ms in dot, %d ms per process on average.", graphs, done.size(), failed.size(), maxProcesses,
+        totalMillis, totalMillis / done.size()));
+    Collections.sort(done, Comparator.comparingLong((Result r) -> r.millis).reversed());
+    System.out.println("Slowest dot processes:");
+    for (Result r : done.subList(0, Math.min(SLOWEST_SHOWN, done.size()))) {
+      System.out.println(r);
+    }
+    for (Result r : failed) {
+      System.out.println("Render failed: " + r);
+    }
+  }
+}
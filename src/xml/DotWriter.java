@@ -0,0 +1,125 @@
+package xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.jgrapht.Graph;
+import org.jgrapht.io.ExportException;
+
+/**
+ * Writes a flowgraph as DOT in one pass, straight to the file, producing the same text as the
+ * jgrapht DOTExporter set up the way {@link ParseFlowGraph} used it: each node with its label and
+ * pinned position, and each edge labelled with its ports. The text goes out through a fixed size
+ * buffer instead of being built up in memory; what is kept grows only with the number of nodes, as
+ * each node's checked ID is kept for its edges.
+ */
+public class DotWriter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final String INDENT = "  ";
+  private static final String NEWLINE = System.lineSeparator();
+  // Identifiers the DOT language takes without quotes, as jgrapht checks them.
+  private static final Pattern VALID_ID = Pattern
+      .compile("[a-zA-Z_][\\w]*|\".*\"|[-]?([.][0-9]+|[0-9]+([.][0-9]*)?)|<.*>");
+
+  private final Writer out;
+  private final Formatter formatter;
+
+  /**
+   * Creates the file, or replaces it.
+   * @param file
+   * @throws IOException
+   */
+  public DotWriter(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    // The platform charset, like the FileWriter this replaces.
+    out = Channels.newWriter(channel, Charset.defaultCharset().newEncoder(), BUFFER_SIZE);
+    formatter = new Formatter(out);
+  }
+
+  /**
+   * @param graph
+   * @param labels Label of each node.
+   * @throws IOException
+   * @throws ExportException If a node ID can't be used in DOT.
+   */
+  public void write(Graph<FlowGraphNode, FlowGraphEdge> graph, Function<FlowGraphNode, String> labels)
+      throws IOException, ExportException {
+    // Checked IDs, as each is written again for every edge.
+    Map<FlowGraphNode, String> ids = new HashMap<FlowGraphNode, String>();
+    out.write("digraph G {");
+    out.write(NEWLINE);
+    for (FlowGraphNode node : graph.vertexSet()) {
+      out.write(INDENT);
+      out.write(getId(node, ids));
+      out.write(" [ label=\"");
+      writeEscaped(labels.apply(node));
+      out.write("\" pos=\"");
+      formatter.format("%f, %f!", node.getX(), node.getY() * 0.75);
+      out.write("\" ];");
+      out.write(NEWLINE);
+    }
+    for (FlowGraphEdge edge : graph.edgeSet()) {
+      out.write(INDENT);
+      out.write(getId(graph.getEdgeSource(edge), ids));
+      out.write(" -> ");
+      out.write(getId(graph.getEdgeTarget(edge), ids));
+      out.write(" [ label=\"");
+      writeEscaped(String.valueOf(edge.portOut));
+      out.write(',');
+      writeEscaped(String.valueOf(edge.portIn));
+      out.write("\" ];");
+      out.write(NEWLINE);
+    }
+    out.write("}");
+    out.write(NEWLINE);
+    if (formatter.ioException() != null) {
+      // The formatter keeps its exceptions to itself.
+      throw formatter.ioException();
+    }
+  }
+
+  private String getId(FlowGraphNode node, Map<FlowGraphNode, String> ids) throws ExportException {
+    String id = ids.get(node);
+    if (id == null) {
+      id = node.getId();
+      if (id == null || !VALID_ID.matcher(id).matches()) {
+        throw new ExportException(
+            "Generated id '" + id + "'for vertex '" + node + "' is not valid with respect to the .dot language");
+      }
+      ids.put(node, id);
+    }
+    return id;
+  }
+
+  /**
+   * Writes text inside a quoted string, escaping the quotes.
+   */
+  private void writeEscaped(String s) throws IOException {
+    int from = 0;
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) == '"') {
+        out.write(s, from, i - from);
+        out.write("\\\"");
+        from = i + 1;
+      }
+    }
+    out.write(s, from, s.length() - from);
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
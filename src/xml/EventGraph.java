@@ -0,0 +1,367 @@
+package xml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+import org.jgrapht.alg.connectivity.ConnectivityInspector;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * How flowgraphs across the whole game talk to each other through remote events. Every
+ * Ark:SendRemoteEvent node leads to the event it sends, and the event to every Ark:RemoteEvent node
+ * listening for it, whichever level or global action either is in. Every listener in turn leads to the
+ * senders it reaches within its own flowgraph. Following the links from an event gives the whole chain
+ * of events it sets off, across files. Going through a vertex for each event keeps the graph as small
+ * as the number of senders and listeners, where linking each sender straight to each listener would
+ * take their product.
+ *
+ * Each file is scanned on its own into a {@link Partial}, so files can be scanned at the same time;
+ * the {@link Builder} then merges them. Event ids are kept unsigned, however the flowgraph wrote them.
+ */
+public class EventGraph {
+  public static final String SEND_CLASS = "Ark:SendRemoteEvent";
+  public static final String RECEIVE_CLASS = "Ark:RemoteEvent";
+  private static final String EVENT_INPUT = "remoteevent_event";
+
+  /**
+   * What a vertex stands for.
+   */
+  public enum Role {
+    SENDER, RECEIVER, EVENT
+  }
+
+  /**
+   * A node that sends or listens for a remote event, or the event itself.
+   */
+  public static class Vertex {
+    private final Role role;
+    private final String graph;
+    private final String nodeId;
+    private final String eventId;
+
+    Vertex(Role role, String graph, String nodeId, String eventId) {
+      this.role = role;
+      this.graph = graph;
+      this.nodeId = nodeId;
+      this.eventId = eventId;
+    }
+
+    public Role getRole() {
+      return role;
+    }
+
+    /**
+     * @return Name of the flowgraph the node is in: its file, and the entity owning it if any. Null for
+     *         an event.
+     */
+    public String getGraph() {
+      return graph;
+    }
+
+    /**
+     * @return ID of the node in its flowgraph, null for an event.
+     */
+    public String getNodeId() {
+      return nodeId;
+    }
+
+    public String getEventId() {
+      return eventId;
+    }
+
+    @Override
+    public String toString() {
+      return role == Role.EVENT ? "event " + eventId : String.format("%s %s node %s", role, graph, nodeId);
+    }
+  }
+
+  /**
+   * The vertices of one file, and the senders each of its listeners leads to.
+   */
+  public static class Partial {
+    private final String file;
+    private final List<Vertex> vertices = new ArrayList<Vertex>();
+    private final Map<Vertex, List<Vertex>> triggers = new LinkedHashMap<Vertex, List<Vertex>>();
+
+    Partial(String file) {
+      this.file = file;
+    }
+
+    public String getFile() {
+      return file;
+    }
+
+    public List<Vertex> getVertices() {
+      return vertices;
+    }
+  }
+
+  /**
+   * Merges the partials of many files.
+   */
+  public static class Builder {
+    private final List<Partial> partials = new ArrayList<Partial>();
+
+    public Builder add(Partial partial) {
+      partials.add(partial);
+      return this;
+    }
+
+    /**
+     * @return The graph, the same whichever order the partials were added in.
+     */
+    public EventGraph build() {
+      Collections.sort(partials, Comparator.comparing(p -> p.file));
+      EventGraph events = new EventGraph();
+      for (Partial p : partials) {
+        for (Vertex v : p.vertices) {
+          Vertex event = events.events.computeIfAbsent(v.eventId, id -> {
+            Vertex e = new Vertex(Role.EVENT, null, null, id);
+            events.graph.addVertex(e);
+            return e;
+          });
+          events.graph.addVertex(v);
+          if (v.role == Role.SENDER) {
+            events.graph.addEdge(v, event);
+          } else {
+            events.graph.addEdge(event, v);
+          }
+        }
+        for (Map.Entry<Vertex, List<Vertex>> trigger : p.triggers.entrySet()) {
+          for (Vertex sender : trigger.getValue()) {
+            events.graph.addEdge(trigger.getKey(), sender);
+          }
+        }
+      }
+      return events;
+    }
+  }
+
+  private final Graph<Vertex, DefaultEdge> graph = new DefaultDirectedGraph<Vertex, DefaultEdge>(DefaultEdge.class);
+  // By event ID, sorted so that reports come out the same every time.
+  private final Map<String, Vertex> events = new TreeMap<String, Vertex>();
+
+  private EventGraph() {
+  }
+
+  /**
+   * Reads the vertices of every flowgraph in a file.
+   * @param reader
+   * @param file Name of the file, which the graphs are named after.
+   * @return
+   * @throws IOException
+   */
+  public static Partial scan(FlowGraphReader reader, String file) throws IOException {
+    Partial partial = new Partial(file);
+    for (FlowGraph flowGraph = reader.next(); flowGraph != null; flowGraph = reader.next()) {
+      scan(flowGraph, file, partial);
+    }
+    return partial;
+  }
+
+  private static void scan(FlowGraph flowGraph, String file, Partial partial) {
+    String graphName = flowGraph.getEntityName() == null ? file : file + " " + flowGraph.getEntityName();
+    NodeStore nodes = flowGraph.getNodeStore();
+    // Later nodes with the same ID replace earlier ones, as in the exported graphs.
+    Map<String, Vertex> vertices = new LinkedHashMap<String, Vertex>();
+    for (int i = 0; i < nodes.size(); i++) {
+      String nodeClass = nodes.getNodeClass(i);
+      Role role = SEND_CLASS.equals(nodeClass) ? Role.SENDER : RECEIVE_CLASS.equals(nodeClass) ? Role.RECEIVER : null;
+      // Flowgraphs write the same event id signed in some places and unsigned in others.
+      String eventId = IdDictionary.toUnsigned(nodes.getInput(i, EVENT_INPUT));
+      if (role != null && eventId != null) {
+        vertices.put(nodes.getId(i), new Vertex(role, graphName, nodes.getId(i), eventId));
+      } else {
+        vertices.remove(nodes.getId(i));
+      }
+    }
+    if (vertices.isEmpty()) {
+      return;
+    }
+    partial.vertices.addAll(vertices.values());
+
+    Map<String, List<String>> next = new HashMap<String, List<String>>();
+    for (FlowGraphEdge edge : flowGraph.getEdges()) {
+      next.computeIfAbsent(edge.nodeOut, k -> new ArrayList<String>()).add(edge.nodeIn);
+    }
+    for (Vertex receiver : vertices.values()) {
+      if (receiver.role != Role.RECEIVER) {
+        continue;
+      }
+      List<Vertex> reached = new ArrayList<Vertex>();
+      for (String nodeId : reachable(receiver.nodeId, next)) {
+        Vertex e = vertices.get(nodeId);
+        if (e != null && e.role == Role.SENDER) {
+          reached.add(e);
+        }
+      }
+      if (!reached.isEmpty()) {
+        partial.triggers.put(receiver, reached);
+      }
+    }
+  }
+
+  /**
+   * @return Every node downstream of the given one, in the order they are found.
+   */
+  private static Set<String> reachable(String from, Map<String, List<String>> next) {
+    Set<String> seen = new LinkedHashSet<String>();
+    Deque<String> queue = new ArrayDeque<String>();
+    queue.add(from);
+    while (!queue.isEmpty()) {
+      for (String n : next.getOrDefault(queue.poll(), Collections.<String>emptyList())) {
+        if (seen.add(n)) {
+          queue.add(n);
+        }
+      }
+    }
+    return seen;
+  }
+
+  /**
+   * @return The senders, listeners and events as vertices, with an edge from each sender to its event,
+   *         from each event to its listeners, and from each listener to the senders it leads to in its
+   *         flowgraph.
+   */
+  public Graph<Vertex, DefaultEdge> getGraph() {
+    return graph;
+  }
+
+  /**
+   * @return IDs of every event sent or listened for, unsigned and sorted.
+   */
+  public Set<String> getEventIds() {
+    return events.keySet();
+  }
+
+  /**
+   * @param eventId Signed or unsigned.
+   * @return Every node sending the event, in file order.
+   */
+  public List<Vertex> getSenders(String eventId) {
+    Vertex event = events.get(IdDictionary.toUnsigned(eventId));
+    return event == null ? Collections.<Vertex>emptyList() : Graphs.predecessorListOf(graph, event);
+  }
+
+  /**
+   * @param eventId Signed or unsigned.
+   * @return Every node listening for the event, in file order.
+   */
+  public List<Vertex> getReceivers(String eventId) {
+    Vertex event = events.get(IdDictionary.toUnsigned(eventId));
+    return event == null ? Collections.<Vertex>emptyList() : Graphs.successorListOf(graph, event);
+  }
+
+  /**
+   * Follows an event through the listeners it reaches, the events they send on, and so on.
+   * @param eventId Signed or unsigned.
+   * @return The event and every event it leads to, in the order they are reached, unsigned.
+   */
+  public List<String> getChain(String eventId) {
+    String start = IdDictionary.toUnsigned(eventId);
+    Set<String> chain = new LinkedHashSet<String>();
+    Deque<String> queue = new ArrayDeque<String>();
+    chain.add(start);
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      for (Vertex receiver : getReceivers(queue.poll())) {
+        for (Vertex sender : Graphs.successorListOf(graph, receiver)) {
+          if (chain.add(sender.eventId)) {
+            queue.add(sender.eventId);
+          }
+        }
+      }
+    }
+    return new ArrayList<String>(chain);
+  }
+
+  /**
+   * @return Sets of vertices connected to each other, largest first, of those spanning several
+   *         flowgraphs.
+   */
+  public List<Set<Vertex>> getLinkedGroups() {
+    List<Set<Vertex>> groups = new ArrayList<Set<Vertex>>();
+    for (Set<Vertex> group : new ConnectivityInspector<Vertex, DefaultEdge>(graph).connectedSets()) {
+      Set<String> graphs = new HashSet<String>();
+      for (Vertex v : group) {
+        if (v.role != Role.EVENT) {
+          graphs.add(v.graph);
+        }
+      }
+      if (graphs.size() > 1) {
+        groups.add(group);
+      }
+    }
+    Collections.sort(groups, Comparator.comparing(g -> -g.size()));
+    return groups;
+  }
+
+  /**
+   * Writes the graph as DOT, with the senders and listeners of each flowgraph grouped together and the
+   * events between the groups. Links within a flowgraph are dashed.
+   * @param file
+   * @param eventNames Name of each event ID.
+   * @throws IOException
+   */
+  public void writeDot(Path file, Function<String, String> eventNames) throws IOException {
+    Map<Vertex, String> ids = new HashMap<Vertex, String>();
+    Map<String, List<Vertex>> byGraph = new TreeMap<String, List<Vertex>>();
+    for (Vertex v : graph.vertexSet()) {
+      ids.put(v, "n" + ids.size());
+      if (v.role != Role.EVENT) {
+        byGraph.computeIfAbsent(v.graph, k -> new ArrayList<Vertex>()).add(v);
+      }
+    }
+    String newline = System.lineSeparator();
+    try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      out.write("digraph events {" + newline);
+      out.write("  rankdir=LR;" + newline);
+      for (Vertex event : events.values()) {
+        out.write(String.format("  %s [ label=\"%s\" shape=diamond ];%s", ids.get(event),
+            escape(eventNames.apply(event.eventId)), newline));
+      }
+      int cluster = 0;
+      for (Map.Entry<String, List<Vertex>> g : byGraph.entrySet()) {
+        out.write("  subgraph cluster_" + cluster++ + " {" + newline);
+        out.write("    label=\"" + escape(g.getKey()) + "\";" + newline);
+        for (Vertex v : g.getValue()) {
+          boolean sender = v.role == Role.SENDER;
+          out.write(String.format("    %s [ label=\"%s EVENT\\n%s\" shape=%s ];%s", ids.get(v),
+              sender ? "SEND" : "RECEIVE", escape(eventNames.apply(v.eventId)), sender ? "box" : "ellipse",
+              newline));
+        }
+        out.write("  }" + newline);
+      }
+      for (DefaultEdge edge : graph.edgeSet()) {
+        Vertex from = graph.getEdgeSource(edge);
+        out.write(String.format("  %s -> %s%s;%s", ids.get(from), ids.get(graph.getEdgeTarget(edge)),
+            from.role == Role.RECEIVER ? " [ style=dashed ]" : "", newline));
+      }
+      out.write("}" + newline);
+    }
+  }
+
+  private static String escape(String s) {
+    return String.valueOf(s).replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+}
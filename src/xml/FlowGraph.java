@@ -0,0 +1,74 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The nodes and edges of a single FlowGraph block, as emitted by a {@link FlowGraphReader}.
+ */
+public class FlowGraph {
+  private final String entityName;
+  private final NodeStore nodes;
+  private final List<FlowGraphEdge> edges;
+
+  /**
+   * @param entityName Name of the entity owning this graph, or null for the nodes that were not
+   *        inside a named entity (e.g. a global action file).
+   * @param nodes The nodes, in the order they were read.
+   * @param edges List of edges.
+   */
+  public FlowGraph(String entityName, NodeStore nodes, List<FlowGraphEdge> edges) {
+    this.entityName = entityName;
+    this.nodes = nodes;
+    this.edges = edges;
+  }
+
+  public String getEntityName() {
+    return entityName;
+  }
+
+  /**
+   * Makes a map of node ID to a view of each node. A later node with the same ID replaces an earlier
+   * one. Builds a new map on every call, so only call it when the node objects are needed.
+   * @return
+   */
+  public Map<String, FlowGraphNode> getNodes() {
+    Map<String, FlowGraphNode> map = new HashMap<String, FlowGraphNode>();
+    for (int i = 0; i < nodes.size(); i++) {
+      map.put(nodes.getId(i), nodes.view(i));
+    }
+    return map;
+  }
+
+  public NodeStore getNodeStore() {
+    return nodes;
+  }
+
+  /**
+   * @return Number of nodes read, counting any with repeated IDs.
+   */
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public List<FlowGraphEdge> getEdges() {
+    return edges;
+  }
+
+  /**
+   * Gets the file this graph should be named after. Graphs that belong to an entity get the entity
+   * name appended to the source file name.
+   * @param xml Source file the graph was read from.
+   * @return
+   * @throws IOException
+   */
+  public File getSourceFile(File xml) throws IOException {
+    if (entityName == null) {
+      return xml;
+    }
+    return new File(xml.getCanonicalPath().replace(".xml", "") + "_" + entityName + ".xml");
+  }
+}
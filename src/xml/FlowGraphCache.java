@@ -0,0 +1,420 @@
+package xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a compact binary copy of the graphs read from each file, so later runs can skip the XML.
+ * The first read of a file goes through the wrapped source and writes the cache alongside; later
+ * reads map the cache file instead, as long as it matches the source file.
+ *
+ * A cache file holds a header (format version, size, modification time and content hash of the
+ * source) followed by the graphs. Strings are written once and referred to by index afterwards.
+ * Writing the cache is best effort: if it fails, the graphs are still returned and the file is read
+ * from the source again next time. Caches that would not fit in one mapping are not written.
+ */
+public class FlowGraphCache implements FlowGraphSource {
+  public static final String EXTENSION = ".fgc";
+
+  private static final Logger LOGGER = Logger.getLogger("FlowGraphCache");
+
+  private static final int MAGIC = 0x46474300; // "FGC\0"
+  private static final int VERSION = 2;
+
+  private static final byte END = 0;
+  private static final byte GRAPH = 1;
+
+  // String references: null, a new string that follows, or an index into the strings seen so far.
+  private static final int NULL_STRING = 0;
+  private static final int NEW_STRING = 1;
+  private static final int FIRST_INDEX = 2;
+
+  private final File cacheDir;
+  private final Path sourceDir;
+  private final FlowGraphSource source;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private StringInterner interner = null;
+
+  /**
+   * @param cacheDir Directory the cache files are kept in.
+   * @param sourceDir Root of the source files, used to name the cache files.
+   * @param source How to read files that are not cached yet.
+   * @throws IOException
+   */
+  public FlowGraphCache(File cacheDir, File sourceDir, FlowGraphSource source) throws IOException {
+    this.cacheDir = cacheDir;
+    this.sourceDir = sourceDir.getCanonicalFile().toPath();
+    this.source = source;
+    Files.createDirectories(cacheDir.toPath());
+  }
+
+  /**
+   * Shares the strings read back from cache files through an interner, like the source does for the
+   * files it reads. By default strings are only shared within each file.
+   * @param interner
+   */
+  public void setInterner(StringInterner interner) {
+    this.interner = interner;
+  }
+
+  @Override
+  public FlowGraphReader open(File xml) throws IOException {
+    File cacheFile = getCacheFile(xml);
+    if (cacheFile.exists()) {
+      CachedReader cached = CachedReader.open(cacheFile, xml, interner);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return cached;
+      }
+      LOGGER.info("Cache is stale for " + xml.getName());
+    }
+    misses.incrementAndGet();
+    FlowGraphReader r = source.open(xml);
+    try {
+      return new CachingReader(r, xml, cacheFile);
+    } catch (IOException e) {
+      LOGGER.warning("Could not cache " + xml.getName() + ": " + e);
+      return r;
+    }
+  }
+
+  /**
+   * Gets the cache file for a source file. Files under the source directory are named after their
+   * path relative to it, so files with the same name in different levels don't collide.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  public File getCacheFile(File xml) throws IOException {
+    Path path = xml.getCanonicalFile().toPath();
+    String name = path.startsWith(sourceDir) ? sourceDir.relativize(path).toString() : path.toString();
+    name = name.replaceAll("[\\\\/:]", "_");
+    return new File(cacheDir, name + EXTENSION);
+  }
+
+  public int getHits() {
+    return hits.get();
+  }
+
+  public int getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Reads from another reader and writes everything it returns to a cache file. The cache file only
+   * appears once the whole source has been read. If writing fails, or the cache grows too large to be
+   * mapped, writing stops and the graphs are still returned.
+   */
+  private static class CachingReader implements FlowGraphReader {
+    private final FlowGraphReader r;
+    private final File xml;
+    private final File cacheFile;
+    private final File tmpFile;
+    // Null once the cache is written or given up on.
+    private DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    CachingReader(FlowGraphReader r, File xml, File cacheFile) throws IOException {
+      this.r = r;
+      this.xml = xml;
+      this.cacheFile = cacheFile;
+      this.tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+      try {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(xml.length());
+        out.writeLong(xml.lastModified());
+        writeString(ContentHash.of(xml));
+      } catch (IOException e) {
+        discard();
+        throw e;
+      }
+    }
+
+    @Override
+    public FlowGraph next() throws IOException {
+      FlowGraph graph = r.next();
+      if (out == null) {
+        return graph;
+      }
+      try {
+        if (graph == null) {
+          out.writeByte(END);
+          out.close();
+          out = null;
+          Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          write(graph);
+          // The size stops counting at Integer.MAX_VALUE, past which the cache can't be mapped.
+          if (out.size() == Integer.MAX_VALUE) {
+            LOGGER.info("Not caching " + xml.getName() + ", too large to map");
+            discard();
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.warning("Could not cache " + xml.getName() + ": " + e);
+        discard();
+      }
+      return graph;
+    }
+
+    private void write(FlowGraph graph) throws IOException {
+      out.writeByte(GRAPH);
+      writeString(graph.getEntityName());
+      NodeStore nodes = graph.getNodeStore();
+      writeVarInt(nodes.size());
+      for (int i = 0; i < nodes.size(); i++) {
+        writeString(nodes.getId(i));
+        writeString(nodes.getName(i));
+        writeString(nodes.getNodeClass(i));
+        out.writeFloat(nodes.getX(i));
+        out.writeFloat(nodes.getY(i));
+        out.writeFloat(nodes.getZ(i));
+        writeVarInt(nodes.getInputCount(i));
+        for (int j = 0; j < nodes.getInputCount(i); j++) {
+          writeString(nodes.getInputKey(i, j));
+          writeString(nodes.getInputValue(i, j));
+        }
+      }
+      writeVarInt(graph.getEdges().size());
+      for (FlowGraphEdge edge : graph.getEdges()) {
+        writeString(edge.nodeIn);
+        writeString(edge.nodeOut);
+        writeString(edge.portIn);
+        writeString(edge.portOut);
+      }
+    }
+
+    /**
+     * Stops writing the cache and deletes what was written of it.
+     */
+    private void discard() {
+      try {
+        if (out != null) {
+          out.close();
+        }
+      } catch (IOException e) {
+        // Deleted below either way.
+      }
+      out = null;
+      try {
+        Files.deleteIfExists(tmpFile.toPath());
+      } catch (IOException e) {
+        LOGGER.warning("Could not delete " + tmpFile + ": " + e);
+      }
+    }
+
+    private void writeString(String s) throws IOException {
+      if (s == null) {
+        writeVarInt(NULL_STRING);
+        return;
+      }
+      Integer index = strings.get(s);
+      if (index != null) {
+        writeVarInt(FIRST_INDEX + index);
+        return;
+      }
+      strings.put(s, strings.size());
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(NEW_STRING);
+      writeVarInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+        out.writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        r.close();
+      } finally {
+        // Stopped before the end of the source, so the cache would be incomplete.
+        discard();
+      }
+    }
+  }
+
+  /**
+   * Reads graphs back from a memory mapped cache file.
+   */
+  private static class CachedReader implements FlowGraphReader {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buf;
+    private final StringInterner interner;
+    private final List<String> strings = new ArrayList<String>();
+    private boolean finished = false;
+
+    private CachedReader(RandomAccessFile file, MappedByteBuffer buf, StringInterner interner) {
+      this.file = file;
+      this.buf = buf;
+      this.interner = interner;
+    }
+
+    /**
+     * Opens a cache file, if it is in the current format and was made from the current source file. The
+     * header is checked before the file is mapped, so a stale cache is never left mapped while it is
+     * replaced.
+     * @param cacheFile
+     * @param xml
+     * @param interner Where strings are shared, or null to only share them within the file.
+     * @return The reader, or null if the cache can't be used.
+     */
+    static CachedReader open(File cacheFile, File xml, StringInterner interner) throws IOException {
+      if (cacheFile.length() > Integer.MAX_VALUE) {
+        return null;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          return null;
+        }
+        long size = in.readLong();
+        long modified = in.readLong();
+        if (readVarInt(in) != NEW_STRING) {
+          return null;
+        }
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        String hash = new String(bytes, StandardCharsets.UTF_8);
+        // Only hash the source again if it looks different from when the cache was made.
+        if (size != xml.length() || (modified != xml.lastModified() && !hash.equals(ContentHash.of(xml)))) {
+          return null;
+        }
+      } catch (IOException e) {
+        LOGGER.warning("Could not read cache " + cacheFile + ": " + e);
+        return null;
+      }
+
+      RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+      try {
+        FileChannel channel = file.getChannel();
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        CachedReader reader = new CachedReader(file, buf, interner);
+        // Already checked above; read again so that the hash is the first string.
+        buf.getInt();
+        buf.getInt();
+        buf.getLong();
+        buf.getLong();
+        reader.readString();
+        return reader;
+      } catch (IOException | RuntimeException e) {
+        file.close();
+        LOGGER.warning("Could not read cache " + cacheFile + ": " + e);
+        return null;
+      }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = in.readByte();
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    @Override
+    public FlowGraph next() throws IOException {
+      if (finished) {
+        return null;
+      }
+      try {
+        if (buf.get() != GRAPH) {
+          finished = true;
+          return null;
+        }
+        String entityName = readString();
+        int nodeCount = readVarInt();
+        // Nodes and inputs come back in the order they were read from the XML.
+        NodeStore nodes = new NodeStore();
+        for (int i = 0; i < nodeCount; i++) {
+          String id = readString();
+          String name = readString();
+          String nodeClass = readString();
+          float x = buf.getFloat();
+          float y = buf.getFloat();
+          float z = buf.getFloat();
+          nodes.add(id, name, nodeClass, x, y, z);
+          int inputCount = readVarInt();
+          for (int j = 0; j < inputCount; j++) {
+            nodes.putInput(readString(), readString());
+          }
+        }
+        nodes.compact();
+        int edgeCount = readVarInt();
+        List<FlowGraphEdge> edges = new ArrayList<FlowGraphEdge>(edgeCount);
+        for (int i = 0; i < edgeCount; i++) {
+          edges.add(new FlowGraphEdge(readString(), readString(), readString(), readString()));
+        }
+        return new FlowGraph(entityName, nodes, edges);
+      } catch (BufferUnderflowException e) {
+        throw new IOException("Truncated flowgraph cache", e);
+      }
+    }
+
+    private String readString() {
+      int ref = readVarInt();
+      if (ref == NULL_STRING) {
+        return null;
+      }
+      if (ref >= FIRST_INDEX) {
+        return strings.get(ref - FIRST_INDEX);
+      }
+      byte[] bytes = new byte[readVarInt()];
+      buf.get(bytes);
+      String s = new String(bytes, StandardCharsets.UTF_8);
+      if (interner != null) {
+        s = interner.intern(s);
+      }
+      strings.add(s);
+      return s;
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buf.get();
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+}
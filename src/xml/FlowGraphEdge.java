@@ -0,0 +1,45 @@
+package xml;
+
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * Describes an edge for the flowgraph.
+ * @author Kida
+ *
+ */
+public class FlowGraphEdge extends DefaultEdge {
+  private static final long serialVersionUID = 1L;
+  String portIn;
+  String portOut;
+  String nodeIn;
+  String nodeOut;
+
+  public FlowGraphEdge(String nodeIn, String nodeOut, String portIn, String portOut) {
+    this.nodeIn = nodeIn;
+    this.nodeOut = nodeOut;
+    this.portIn = portIn;
+    this.portOut = portOut;
+  }
+
+  public String getNodeIn() {
+    return nodeIn;
+  }
+
+  public String getNodeOut() {
+    return nodeOut;
+  }
+
+  public String getPortIn() {
+    return portIn;
+  }
+
+  public String getPortOut() {
+    return portOut;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s,%s", portOut, portIn);
+  }
+
+}
@@ -0,0 +1,63 @@
+package xml;
+
+import java.util.Map;
+
+/**
+ * Describes a single node of the flowgraph. This is a view of one node in a {@link NodeStore}, which
+ * is where the data lives.
+ * @author Kida
+ *
+ */
+public class FlowGraphNode {
+  private final NodeStore store;
+  private final int index;
+
+  FlowGraphNode(NodeStore store, int index) {
+    this.store = store;
+    this.index = index;
+  }
+
+  public String getId() {
+    return store.getId(index);
+  }
+
+  public String getName() {
+    return store.getName(index);
+  }
+
+  public String getNodeClass() {
+    return store.getNodeClass(index);
+  }
+
+  public float getX() {
+    return store.getX(index);
+  }
+
+  public float getY() {
+    return store.getY(index);
+  }
+
+  public float getZ() {
+    return store.getZ(index);
+  }
+
+  /**
+   * @return Read-only view of the node's inputs.
+   */
+  public Map<String, String> getInputs() {
+    return store.getInputs(index);
+  }
+
+  String getLabel() {
+    return store.getLabel(index);
+  }
+
+  void setLabel(String label) {
+    store.setLabel(index, label);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s", getNodeClass(), getId());
+  }
+}
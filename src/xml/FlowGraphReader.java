@@ -0,0 +1,19 @@
+package xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads a flowgraph-bearing XML file one FlowGraph block at a time.
+ */
+public interface FlowGraphReader extends Closeable {
+
+  /**
+   * Reads up to the end of the next FlowGraph block belonging to an entity. Once the input is
+   * exhausted, the nodes that did not belong to any entity are returned as a final graph with no
+   * entity name.
+   * @return The next graph, or null once the whole file has been read.
+   * @throws IOException
+   */
+  FlowGraph next() throws IOException;
+}
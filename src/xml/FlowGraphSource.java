@@ -0,0 +1,12 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens a {@link FlowGraphReader} over a file.
+ */
+@FunctionalInterface
+public interface FlowGraphSource {
+  FlowGraphReader open(File xml) throws IOException;
+}
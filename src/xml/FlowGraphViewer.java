@@ -0,0 +1,130 @@
+package xml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.MultiGraph;
+import org.graphstream.ui.view.Viewer;
+import org.jgrapht.Graph;
+
+/**
+ * Shows flowgraphs in an interactive GraphStream window, each node at its position in the editor. No
+ * layout is ever computed, and the graph is handed to the window a chunk of nodes or edges at a time,
+ * so the window keeps drawing and answering while a large graph comes in.
+ *
+ * Labels only show once zoomed in far enough that a few hundred nodes are on screen; drawing the
+ * text of every node is what makes a large graph slow, and it can't be read from further out anyway.
+ */
+public class FlowGraphViewer {
+  private static final Logger LOGGER = Logger.getLogger("FlowGraphViewer");
+
+  private static final String RENDERER_PROPERTY = "org.graphstream.ui.renderer";
+  // The gs-ui renderer, which can hide text depending on the zoom.
+  private static final String RENDERER = "org.graphstream.ui.j2dviewer.J2DGraphRenderer";
+  private static final String STYLE = "graph { padding: 40px; } "
+      + "node { size: 8px; fill-color: #333; text-alignment: under; text-size: 11; %s } "
+      + "edge { fill-color: #888; arrow-size: 5px, 3px; text-size: 9; text-color: #666; %s }";
+  // Nodes on screen at most before labels show.
+  private static final int LABELLED_NODES = 300;
+
+  public static final int DEFAULT_CHUNK_SIZE = 1000;
+  // The window takes in what was added every 40 ms.
+  public static final long DEFAULT_CHUNK_PAUSE_MILLIS = 40;
+
+  private final Function<FlowGraphNode, String> labels;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private long chunkPauseMillis = DEFAULT_CHUNK_PAUSE_MILLIS;
+
+  /**
+   * @param labels Label of each node.
+   */
+  public FlowGraphViewer(Function<FlowGraphNode, String> labels) {
+    this.labels = labels;
+  }
+
+  /**
+   * @param chunkSize Nodes or edges added at once.
+   * @param chunkPauseMillis Time given to the window after each chunk.
+   */
+  public void setChunks(int chunkSize, long chunkPauseMillis) {
+    this.chunkSize = chunkSize;
+    this.chunkPauseMillis = chunkPauseMillis;
+  }
+
+  /**
+   * Opens a window on a graph and fills it in. Returns once the whole graph was handed to the window.
+   * @param graph
+   * @param title
+   * @return The viewer of the window.
+   * @throws InterruptedException
+   */
+  public Viewer show(Graph<FlowGraphNode, FlowGraphEdge> graph, String title) throws InterruptedException {
+    System.setProperty(RENDERER_PROPERTY, RENDERER);
+    MultiGraph target = createTarget(graph.vertexSet().size(), title);
+    Viewer viewer = new Viewer(target, Viewer.ThreadingModel.GRAPH_IN_ANOTHER_THREAD);
+    viewer.disableAutoLayout();
+    viewer.setCloseFramePolicy(Viewer.CloseFramePolicy.CLOSE_VIEWER);
+    viewer.addDefaultView(true);
+    long start = System.nanoTime();
+    stream(graph, target);
+    LOGGER.info(String.format("Streamed %s: %d nodes, %d edges in %d ms", title, graph.vertexSet().size(),
+        graph.edgeSet().size(), (System.nanoTime() - start) / 1000000));
+    return viewer;
+  }
+
+  /**
+   * Makes an empty GraphStream graph styled for a flowgraph of the given size.
+   * @param nodes Number of nodes that will be added.
+   * @param title
+   * @return
+   */
+  public static MultiGraph createTarget(int nodes, String title) {
+    MultiGraph target = new MultiGraph(title, false, false, Math.max(nodes, 1), Math.max(nodes, 1));
+    String textVisibility = "";
+    if (nodes > LABELLED_NODES) {
+      // The zoom is the part of the graph's width in view, so a zoom of z shows about nodes * z * z.
+      textVisibility = String.format(Locale.ROOT, "text-visibility-mode: under-zoom; text-visibility: %.4f;",
+          Math.sqrt((double) LABELLED_NODES / nodes));
+    }
+    target.addAttribute("ui.stylesheet", String.format(STYLE, textVisibility, textVisibility));
+    target.addAttribute("ui.title", title);
+    return target;
+  }
+
+  /**
+   * Adds every node at its pinned position, then every edge, a chunk at a time. y is passed through
+   * as it is, only squashed like in the dot files, so the view is the same way up as the images.
+   * @param graph
+   * @param target
+   * @throws InterruptedException
+   */
+  public void stream(Graph<FlowGraphNode, FlowGraphEdge> graph, org.graphstream.graph.Graph target)
+      throws InterruptedException {
+    List<FlowGraphNode> nodes = new ArrayList<FlowGraphNode>(graph.vertexSet());
+    for (int i = 0; i < nodes.size(); i++) {
+      FlowGraphNode node = nodes.get(i);
+      Node n = target.addNode(node.getId());
+      n.addAttribute("xy", (double) node.getX(), node.getY() * 0.75);
+      // Text is drawn on one line.
+      n.addAttribute("ui.label", labels.apply(node).replace('\n', ' '));
+      pauseAfter(i);
+    }
+    int i = 0;
+    for (FlowGraphEdge edge : graph.edgeSet()) {
+      Edge e = target.addEdge("e" + i, graph.getEdgeSource(edge).getId(), graph.getEdgeTarget(edge).getId(), true);
+      e.addAttribute("ui.label", edge.toString());
+      pauseAfter(i++);
+    }
+  }
+
+  private void pauseAfter(int i) throws InterruptedException {
+    if (chunkPauseMillis > 0 && (i + 1) % chunkSize == 0) {
+      Thread.sleep(chunkPauseMillis);
+    }
+  }
+}
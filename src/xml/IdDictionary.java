@@ -0,0 +1,118 @@
+package xml;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Dictionary keyed by 64-bit ids, such as objectives and tasks. Flowgraphs write these ids either
+ * signed or unsigned, so both forms of an id find the same entry. Names are kept in a string table
+ * that can be shared with other dictionaries.
+ */
+public class IdDictionary implements Dictionary {
+  private static final int ABSENT = -2;
+
+  private final LongIntMap ids;
+  private final StringTable strings;
+
+  /**
+   * @param ids Index of each name in the string table, by id.
+   * @param strings
+   */
+  public IdDictionary(LongIntMap ids, StringTable strings) {
+    this.ids = ids;
+    this.strings = strings;
+  }
+
+  /**
+   * @param s
+   * @return Whether the string is a decimal number that can be read as an id.
+   */
+  public static boolean isId(String s) {
+    if (s == null || s.isEmpty() || s.length() > 20) {
+      return false;
+    }
+    for (int i = s.charAt(0) == '-' ? 1 : 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return s.length() > 1 || s.charAt(0) != '-';
+  }
+
+  /**
+   * Reads an id written either as a signed or an unsigned 64-bit number.
+   * @param s
+   * @return The id, with the same bits either way.
+   * @throws NumberFormatException If the string is not a 64-bit number.
+   */
+  public static long parseId(String s) {
+    return s.charAt(0) == '-' ? Long.parseLong(s) : Long.parseUnsignedLong(s);
+  }
+
+  /**
+   * @param s
+   * @return The id written unsigned if it is a 64-bit number, so both forms of an id are the same
+   *         string; anything else as it is.
+   */
+  public static String toUnsigned(String s) {
+    if (!isId(s)) {
+      return s;
+    }
+    try {
+      return Long.toUnsignedString(parseId(s));
+    } catch (NumberFormatException e) {
+      return s;
+    }
+  }
+
+  private int find(String id) {
+    if (!isId(id)) {
+      return ABSENT;
+    }
+    try {
+      return ids.get(parseId(id), ABSENT);
+    } catch (NumberFormatException e) {
+      return ABSENT;
+    }
+  }
+
+  @Override
+  public String get(String id) {
+    int index = find(id);
+    return index == ABSENT ? null : strings.get(index);
+  }
+
+  @Override
+  public boolean containsKey(String id) {
+    return find(id) != ABSENT;
+  }
+
+  public String get(long id) {
+    int index = ids.get(id, ABSENT);
+    return index == ABSENT ? null : strings.get(index);
+  }
+
+  public boolean containsKey(long id) {
+    return ids.containsKey(id);
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Calls the action for every id, in its unsigned form, and its name.
+   */
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    ids.forEach((id, index) -> action.accept(Long.toUnsignedString(id), strings.get(index)));
+  }
+
+  /**
+   * @return Every id, sorted as signed values.
+   */
+  public long[] sortedIds() {
+    return ids.sortedKeys();
+  }
+}
@@ -0,0 +1,398 @@
+package xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Every id in every dictionary in one place, with what kind of thing it names. Answers both "what is
+ * this id?" and "which ids have this name?".
+ *
+ * Numeric ids, which is nearly all of them, are kept sorted in a long array next to the kind and the
+ * index of the name in a string table. An id used by several kinds has one entry for each. The few
+ * ids that aren't numbers are kept in a map instead.
+ */
+public class IdIndex {
+
+  /**
+   * The dictionary an id comes from.
+   */
+  public enum Kind {
+    GAME_TOKEN, GAME_METRIC, REMOTE_EVENT, LOCATION, CONNECTIVITY, OBJECTIVE, TASK, DESCRIPTION, CLUE
+  }
+
+  private static final Kind[] KINDS = Kind.values();
+
+  /**
+   * One id of one kind, and its name.
+   */
+  public static class Entry {
+    private final Kind kind;
+    private final String id;
+    private final String name;
+
+    Entry(Kind kind, String id, String name) {
+      this.kind = kind;
+      this.id = id;
+      this.name = name;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %s \"%s\"", kind, id, name);
+    }
+  }
+
+  /**
+   * Collects the dictionaries an index is built from.
+   */
+  public static class Builder {
+    private final StringTable strings = new StringTable();
+    private long[] ids = new long[1024];
+    private byte[] kinds = new byte[1024];
+    private int[] names = new int[1024];
+    private int size = 0;
+    private final Map<String, List<Entry>> textIds = new HashMap<String, List<Entry>>();
+
+    /**
+     * Adds every entry of a dictionary. Entries without an id are left out.
+     * @param kind
+     * @param dictionary
+     * @return This builder.
+     */
+    public Builder add(Kind kind, Dictionary dictionary) {
+      dictionary.forEach((id, name) -> add(kind, id, name));
+      return this;
+    }
+
+    /**
+     * @param kind
+     * @param id
+     * @param name
+     * @return This builder.
+     */
+    public Builder add(Kind kind, String id, String name) {
+      if (id == null) {
+        return this;
+      }
+      if (IdDictionary.isId(id)) {
+        try {
+          add(kind, IdDictionary.parseId(id), name);
+          return this;
+        } catch (NumberFormatException e) {
+          // Too large for a long, so kept as text.
+        }
+      }
+      List<Entry> entries = textIds.get(id);
+      if (entries == null) {
+        entries = new ArrayList<Entry>(1);
+        textIds.put(id, entries);
+      }
+      entries.add(new Entry(kind, id, name));
+      return this;
+    }
+
+    private void add(Kind kind, long id, String name) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        kinds = Arrays.copyOf(kinds, size * 2);
+        names = Arrays.copyOf(names, size * 2);
+      }
+      ids[size] = id;
+      kinds[size] = (byte) kind.ordinal();
+      names[size] = strings.add(name);
+      size++;
+    }
+
+    public IdIndex build() {
+      // Sort the entries by id, then kind.
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> ids[a] != ids[b] ? Long.compare(ids[a], ids[b]) : Byte.compare(kinds[a], kinds[b]));
+      long[] sortedIds = new long[size];
+      byte[] sortedKinds = new byte[size];
+      int[] sortedNames = new int[size];
+      for (int i = 0; i < size; i++) {
+        sortedIds[i] = ids[order[i]];
+        sortedKinds[i] = kinds[order[i]];
+        sortedNames[i] = names[order[i]];
+      }
+
+      // And the same entries by name, for reverse lookups.
+      Arrays.sort(order, (a, b) -> Integer.compare(sortedNames[a], sortedNames[b]));
+      int[] byName = new int[size];
+      for (int i = 0; i < size; i++) {
+        byName[i] = order[i];
+      }
+      return new IdIndex(strings, sortedIds, sortedKinds, sortedNames, byName, textIds);
+    }
+  }
+
+  private final StringTable strings;
+  private final long[] ids;
+  private final byte[] kinds;
+  private final int[] names;
+  // Positions of the entries, sorted by name index.
+  private final int[] byName;
+  private final Map<String, List<Entry>> textIds;
+
+  private IdIndex(StringTable strings, long[] ids, byte[] kinds, int[] names, int[] byName,
+      Map<String, List<Entry>> textIds) {
+    this.strings = strings;
+    this.ids = ids;
+    this.kinds = kinds;
+    this.names = names;
+    this.byName = byName;
+    this.textIds = textIds;
+  }
+
+  /**
+   * @return Number of entries in the index.
+   */
+  public int size() {
+    int size = ids.length;
+    for (List<Entry> entries : textIds.values()) {
+      size += entries.size();
+    }
+    return size;
+  }
+
+  /**
+   * @return Position of the first entry with the id, or -1.
+   */
+  private int first(long id) {
+    int low = 0;
+    int high = ids.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (ids[mid] < id) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low < ids.length && ids[low] == id ? low : -1;
+  }
+
+  /**
+   * @return Position of the entry with the id and kind, or -1.
+   */
+  private int find(long id, Kind kind) {
+    int i = first(id);
+    if (i < 0) {
+      return -1;
+    }
+    for (; i < ids.length && ids[i] == id; i++) {
+      if (kinds[i] == kind.ordinal()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private Entry entry(int i) {
+    return new Entry(KINDS[kinds[i]], Long.toUnsignedString(ids[i]), strings.get(names[i]));
+  }
+
+  /**
+   * @param id
+   * @return Everything the id stands for, in order of kind.
+   */
+  public List<Entry> lookup(long id) {
+    int i = first(id);
+    if (i < 0) {
+      return Collections.emptyList();
+    }
+    List<Entry> entries = new ArrayList<Entry>(1);
+    for (; i < ids.length && ids[i] == id; i++) {
+      entries.add(entry(i));
+    }
+    return entries;
+  }
+
+  /**
+   * @param id An id, signed or unsigned, or any other text used as an id.
+   * @return Everything the id stands for, in order of kind.
+   */
+  public List<Entry> lookup(String id) {
+    if (IdDictionary.isId(id)) {
+      try {
+        return lookup(IdDictionary.parseId(id));
+      } catch (NumberFormatException e) {
+        // Too large for a long, so kept as text.
+      }
+    }
+    List<Entry> entries = textIds.get(id);
+    return entries != null ? entries : Collections.<Entry> emptyList();
+  }
+
+  /**
+   * @param id
+   * @param kind
+   * @return The name of the id as that kind, or null if it isn't one.
+   */
+  public String getName(long id, Kind kind) {
+    int i = find(id, kind);
+    return i < 0 ? null : strings.get(names[i]);
+  }
+
+  /**
+   * Looks up many ids of one kind at once. The ids are looked up in sorted order, so each search
+   * starts where the last one ended.
+   * @param ids
+   * @param kind
+   * @return The name of each id, or null where the id isn't of that kind.
+   */
+  public String[] getNames(long[] ids, Kind kind) {
+    long[] sorted = ids.clone();
+    Arrays.sort(sorted);
+    String[] sortedNames = new String[sorted.length];
+    int from = 0;
+    for (int q = 0; q < sorted.length; q++) {
+      if (q > 0 && sorted[q] == sorted[q - 1]) {
+        sortedNames[q] = sortedNames[q - 1];
+        continue;
+      }
+      int i = Arrays.binarySearch(this.ids, from, this.ids.length, sorted[q]);
+      if (i < 0) {
+        from = -i - 1;
+        continue;
+      }
+      // binarySearch may land on any of several entries for the id.
+      while (i > from && this.ids[i - 1] == sorted[q]) {
+        i--;
+      }
+      from = i;
+      for (int j = i; j < this.ids.length && this.ids[j] == sorted[q]; j++) {
+        if (kinds[j] == kind.ordinal()) {
+          sortedNames[q] = strings.get(names[j]);
+          break;
+        }
+      }
+    }
+    String[] result = new String[ids.length];
+    for (int q = 0; q < ids.length; q++) {
+      result[q] = sortedNames[Arrays.binarySearch(sorted, ids[q])];
+    }
+    return result;
+  }
+
+  /**
+   * @param name
+   * @return Every entry with exactly this name.
+   */
+  public List<Entry> find(String name) {
+    List<Entry> entries = new ArrayList<Entry>();
+    int index = strings.indexOf(name);
+    if (index != StringTable.NULL) {
+      int low = 0;
+      int high = byName.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (names[byName[mid]] < index) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      for (int i = low; i < byName.length && names[byName[i]] == index; i++) {
+        entries.add(entry(byName[i]));
+      }
+    }
+    for (List<Entry> text : textIds.values()) {
+      for (Entry e : text) {
+        if (name.equals(e.name)) {
+          entries.add(e);
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * @param kind
+   * @return The entries of one kind, looked up like the dictionary they came from.
+   */
+  public Dictionary dictionary(Kind kind) {
+    return new Dictionary() {
+      private int find(String id) {
+        if (IdDictionary.isId(id)) {
+          try {
+            return IdIndex.this.find(IdDictionary.parseId(id), kind);
+          } catch (NumberFormatException e) {
+            // Too large for a long, so kept as text.
+          }
+        }
+        return -1;
+      }
+
+      private Entry findText(String id) {
+        List<Entry> entries = textIds.get(id);
+        if (entries != null) {
+          for (Entry e : entries) {
+            if (e.kind == kind) {
+              return e;
+            }
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public String get(String id) {
+        int i = find(id);
+        if (i >= 0) {
+          return strings.get(names[i]);
+        }
+        Entry e = findText(id);
+        return e != null ? e.name : null;
+      }
+
+      @Override
+      public boolean containsKey(String id) {
+        return find(id) >= 0 || findText(id) != null;
+      }
+
+      @Override
+      public int size() {
+        int[] count = new int[1];
+        forEach((id, name) -> count[0]++);
+        return count[0];
+      }
+
+      @Override
+      public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < ids.length; i++) {
+          if (kinds[i] == kind.ordinal()) {
+            action.accept(Long.toUnsignedString(ids[i]), strings.get(names[i]));
+          }
+        }
+        for (List<Entry> entries : textIds.values()) {
+          for (Entry e : entries) {
+            if (e.kind == kind) {
+              action.accept(e.id, e.name);
+            }
+          }
+        }
+      }
+    };
+  }
+}
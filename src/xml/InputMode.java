@@ -0,0 +1,47 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Available ways of reading flowgraph XML.
+ */
+public enum InputMode implements FlowGraphSource {
+  /** Line-based scanning, requires each Inputs element to be on the line after its Node. */
+  LINE(LineFlowGraphReader::new),
+  /** Streaming StAX parsing, independent of formatting. */
+  STAX(StaxFlowGraphReader::new),
+  /** Byte-level scanning of a memory mapped file, for very large level files. */
+  MAPPED(MappedFlowGraphReader::new);
+
+  /**
+   * Opens a reader that shares its strings through the given interner.
+   */
+  @FunctionalInterface
+  private interface Opener {
+    FlowGraphReader open(File xml, StringInterner interner) throws IOException;
+  }
+
+  private final Opener opener;
+
+  private InputMode(Opener opener) {
+    this.opener = opener;
+  }
+
+  /**
+   * Opens a reader with its own {@link StringInterner}, so strings are shared within the file.
+   */
+  @Override
+  public FlowGraphReader open(File xml) throws IOException {
+    return opener.open(xml, new StringInterner());
+  }
+
+  /**
+   * @param interner
+   * @return A source reading like this mode, that shares strings across every file through the given
+   *         interner.
+   */
+  public FlowGraphSource sharing(StringInterner interner) {
+    return xml -> opener.open(xml, interner);
+  }
+}
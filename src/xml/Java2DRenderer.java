@@ -0,0 +1,244 @@
+package xml;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.CubicCurve2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+import org.jgrapht.Graph;
+
+/**
+ * Draws flowgraphs straight to images with Java2D, the way Graphviz draws them with neato -n: each
+ * node as an ellipse around its label at its pinned position, and each edge as a straight line with
+ * an arrowhead, labelled with its ports. Graphviz does no layout for these graphs, so nothing is lost
+ * by not running it, and there is no process to start or time out. See {@link PinnedLayout} for where
+ * things go; they are drawn at 96 dpi. Images too large to hold are scaled down to
+ * {@link #setMaxPixels(long)}, or with {@link #setTiled(boolean)} cut into a {@link TilePyramid} instead.
+ *
+ * Graphs are drawn on a fixed number of threads. While all of them are busy and a few graphs are
+ * queued, the thread asking for a render draws the graph itself, so graphs can't pile up in memory.
+ * The tiles of pyramids are drawn on as many threads again.
+ */
+public class Java2DRenderer {
+  private static final String FORMAT = "jpg";
+  private static final double SCALE = 96.0 / 72;
+  private static final int MAX_SIDE = Short.MAX_VALUE;
+
+  public static final long DEFAULT_MAX_PIXELS = 1L << 24;
+
+  private final ThreadPoolExecutor pool;
+  // Draws the tiles of pyramids while the thread writing each waits, on as many threads as graphs.
+  private final ThreadPoolExecutor tilePool;
+  private final int threads;
+  private long maxPixels = DEFAULT_MAX_PIXELS;
+  private boolean tiled = false;
+  private final AtomicInteger drawn = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicLong drawNanos = new AtomicLong();
+  private final AtomicInteger pyramids = new AtomicInteger();
+  private final AtomicInteger tiles = new AtomicInteger();
+
+  /**
+   * @param threads Number of graphs drawn at once.
+   */
+  public Java2DRenderer(int threads) {
+    this.threads = threads;
+    this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(threads * 2), r -> {
+          Thread t = new Thread(r, "draw");
+          t.setDaemon(true);
+          return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    this.tilePool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), r -> {
+          Thread t = new Thread(r, "tile");
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  /**
+   * @param maxPixels Size an image may have at most, larger ones are scaled down to it.
+   */
+  public void setMaxPixels(long maxPixels) {
+    this.maxPixels = maxPixels;
+  }
+
+  /**
+   * Sets whether graphs too large to draw at full size are written as a tile pyramid, a .dzi file
+   * named after the image, instead of as an image scaled down to fit.
+   * @param tiled
+   */
+  public void setTiled(boolean tiled) {
+    this.tiled = tiled;
+  }
+
+  public boolean isTiled() {
+    return tiled;
+  }
+
+  /**
+   * Queues a graph to be drawn, or draws it right away if the queue is full.
+   * @param graph
+   * @param labels Label of each node.
+   * @param imgFile
+   * @return Completes with the file written once the image is, or with the exception that stopped it.
+   */
+  public CompletableFuture<File> submit(Graph<FlowGraphNode, FlowGraphEdge> graph,
+      Function<FlowGraphNode, String> labels, File imgFile) {
+    CompletableFuture<File> done = new CompletableFuture<File>();
+    pool.execute(() -> {
+      try {
+        done.complete(render(graph, labels, imgFile));
+      } catch (Throwable t) {
+        done.completeExceptionally(t);
+      }
+    });
+    return done;
+  }
+
+  /**
+   * Draws a graph and writes the image, or its tile pyramid.
+   * @param graph
+   * @param labels Label of each node.
+   * @param imgFile
+   * @return The file written: the image, or the .dzi file of the pyramid.
+   * @throws IOException
+   */
+  public File render(Graph<FlowGraphNode, FlowGraphEdge> graph, Function<FlowGraphNode, String> labels,
+      File imgFile) throws IOException {
+    long start = System.nanoTime();
+    try {
+      PinnedLayout layout = new PinnedLayout(graph, labels);
+      if (tiled && getFit(layout) < 1) {
+        String name = imgFile.getName();
+        File dziFile = new File(imgFile.getParentFile(), name.substring(0, name.lastIndexOf('.') + 1) + "dzi");
+        tiles.addAndGet(new TilePyramid(graph, layout).write(dziFile, tilePool));
+        pyramids.incrementAndGet();
+        drawn.incrementAndGet();
+        return dziFile;
+      }
+      BufferedImage image = draw(graph, layout);
+      if (!ImageIO.write(image, FORMAT, imgFile)) {
+        throw new IOException("No writer for " + FORMAT + " images");
+      }
+      drawn.incrementAndGet();
+      return imgFile;
+    } catch (IOException | RuntimeException e) {
+      failed.incrementAndGet();
+      throw e;
+    } finally {
+      drawNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @param graph
+   * @param labels Label of each node.
+   * @return The graph drawn on a white background.
+   */
+  public BufferedImage draw(Graph<FlowGraphNode, FlowGraphEdge> graph, Function<FlowGraphNode, String> labels) {
+    return draw(graph, new PinnedLayout(graph, labels));
+  }
+
+  /**
+   * @return How much the image has to be scaled down to fit, 1 if not at all.
+   */
+  private double getFit(PinnedLayout layout) {
+    double width = layout.getWidth();
+    double height = layout.getHeight();
+    return Math.min(1, Math.min(Math.sqrt(maxPixels / (width * height * SCALE * SCALE)),
+        Math.min(MAX_SIDE / (width * SCALE), MAX_SIDE / (height * SCALE))));
+  }
+
+  private BufferedImage draw(Graph<FlowGraphNode, FlowGraphEdge> graph, PinnedLayout layout) {
+    double width = layout.getWidth();
+    double height = layout.getHeight();
+    double scale = SCALE * getFit(layout);
+    BufferedImage image = new BufferedImage(Math.max(1, (int) Math.ceil(width * scale)),
+        Math.max(1, (int) Math.ceil(height * scale)), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+      g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, image.getWidth(), image.getHeight());
+      g.scale(scale, scale);
+      g.translate(-layout.getLeft(), -layout.getTop());
+      g.setColor(Color.BLACK);
+      g.setStroke(new BasicStroke(1));
+      g.setFont(PinnedLayout.FONT);
+      for (PinnedLayout.Box box : layout.getBoxes()) {
+        drawBox(g, box);
+      }
+      for (FlowGraphEdge edge : graph.edgeSet()) {
+        drawEdge(g, layout.route(edge));
+      }
+    } finally {
+      g.dispose();
+    }
+    return image;
+  }
+
+  static void drawBox(Graphics2D g, PinnedLayout.Box box) {
+    g.draw(new Ellipse2D.Double(box.x - box.rx, box.y - box.ry, box.rx * 2, box.ry * 2));
+    double baseline = box.getFirstBaseline();
+    for (int i = 0; i < box.lines.length; i++) {
+      g.drawString(box.lines[i], (float) (box.x - box.widths[i] / 2),
+          (float) (baseline + i * PinnedLayout.LINE_HEIGHT));
+    }
+  }
+
+  static void drawEdge(Graphics2D g, PinnedLayout.Route route) {
+    double[] p = route.path;
+    if (route.loop) {
+      g.draw(new CubicCurve2D.Double(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7]));
+    } else {
+      g.draw(new Line2D.Double(p[0], p[1], p[2], p[3]));
+    }
+    if (route.arrow != null) {
+      Path2D.Double head = new Path2D.Double();
+      head.moveTo(route.arrow[0], route.arrow[1]);
+      head.lineTo(route.arrow[2], route.arrow[3]);
+      head.lineTo(route.arrow[4], route.arrow[5]);
+      head.closePath();
+      g.fill(head);
+    }
+    g.drawString(route.label, (float) (route.labelX - route.labelWidth / 2), (float) route.labelBaseline);
+  }
+
+  /**
+   * Prints how many graphs were drawn and how long it took.
+   */
+  public void printSummary() {
+    int total = drawn.get() + failed.get();
+    if (total == 0) {
+      return;
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(drawNanos.get());
+    System.out.println(String.format("Drew %d graphs (%d failed) on up to %d threads: %d ms drawing, "
+        + "%.1f ms on average.", total, failed.get(), threads, millis, (double) millis / total));
+    if (pyramids.get() > 0) {
+      System.out.println(String.format("%d of them too large for one image, cut into %d tiles.", pyramids.get(),
+          tiles.get()));
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package xml;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Labels already made, by node class, name and inputs. Nodes that look the same, like the same token
+ * check repeated across a level, are then only labelled once per corpus. Once full it stops taking
+ * new labels rather than evicting any.
+ */
+class LabelCache {
+  private final ConcurrentHashMap<Key, String> labels = new ConcurrentHashMap<Key, String>();
+  private final int maxSize;
+
+  /**
+   * @param maxSize Number of labels kept at most.
+   */
+  LabelCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @param nodeClass
+   * @param nodeName
+   * @param inputs
+   * @param renderer Makes the label if it isn't cached yet.
+   * @return
+   */
+  String get(String nodeClass, String nodeName, Map<String, String> inputs, LabelRenderer renderer) {
+    Key key = new Key(nodeClass, nodeName, inputs);
+    String label = labels.get(key);
+    if (label == null) {
+      label = renderer.render(nodeClass, nodeName, inputs);
+      if (label != null && labels.size() < maxSize) {
+        labels.putIfAbsent(key, label);
+      }
+    }
+    return label;
+  }
+
+  void clear() {
+    labels.clear();
+  }
+
+  int size() {
+    return labels.size();
+  }
+
+  /**
+   * Class, name and every input key and value, in order.
+   */
+  private static final class Key {
+    private final String[] parts;
+    private final int hash;
+
+    Key(String nodeClass, String nodeName, Map<String, String> inputs) {
+      parts = new String[2 + inputs.size() * 2];
+      parts[0] = nodeClass;
+      parts[1] = nodeName;
+      int i = 2;
+      for (Map.Entry<String, String> input : inputs.entrySet()) {
+        parts[i++] = input.getKey();
+        parts[i++] = input.getValue();
+      }
+      hash = Arrays.hashCode(parts);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).hash == hash && Arrays.equals(((Key) o).parts, parts);
+    }
+  }
+}
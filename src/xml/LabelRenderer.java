@@ -0,0 +1,17 @@
+package xml;
+
+import java.util.Map;
+
+/**
+ * Makes the label shown for nodes of one class.
+ */
+@FunctionalInterface
+public interface LabelRenderer {
+  /**
+   * @param nodeClass
+   * @param nodeName
+   * @param inputs Inputs of the node, keyed by lower case name.
+   * @return The label. A null label, or one containing "null", is flagged along with the raw inputs.
+   */
+  String render(String nodeClass, String nodeName, Map<String, String> inputs);
+}
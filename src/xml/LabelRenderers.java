@@ -0,0 +1,68 @@
+package xml;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link LabelRenderer} for each node class. A class is resolved to its renderer, or to the
+ * fallback for classes nobody registered, the first time it comes up; after that a lookup is a single
+ * map access, which for the interned class strings of a parsed graph is an identity comparison.
+ *
+ * Renderers can be registered at any time and from any thread.
+ */
+public class LabelRenderers {
+  private final Map<String, LabelRenderer> registered = new ConcurrentHashMap<String, LabelRenderer>();
+  private final Map<String, LabelRenderer> resolved = new ConcurrentHashMap<String, LabelRenderer>();
+  private final LabelRenderer fallback;
+
+  /**
+   * @param fallback Renderer for classes without one of their own.
+   */
+  public LabelRenderers(LabelRenderer fallback) {
+    this.fallback = fallback;
+  }
+
+  /**
+   * Sets the renderer for a class, replacing any earlier one.
+   * @param nodeClass
+   * @param renderer
+   */
+  public void register(String nodeClass, LabelRenderer renderer) {
+    registered.put(nodeClass, renderer);
+    resolved.remove(nodeClass);
+  }
+
+  /**
+   * @param nodeClass
+   * @return Whether the class has a renderer of its own.
+   */
+  public boolean isRegistered(String nodeClass) {
+    return nodeClass != null && registered.containsKey(nodeClass);
+  }
+
+  /**
+   * @param nodeClass
+   * @return The renderer for the class, or the fallback.
+   */
+  public LabelRenderer resolve(String nodeClass) {
+    if (nodeClass == null) {
+      return fallback;
+    }
+    LabelRenderer renderer = resolved.get(nodeClass);
+    if (renderer == null) {
+      renderer = registered.getOrDefault(nodeClass, fallback);
+      resolved.put(nodeClass, renderer);
+    }
+    return renderer;
+  }
+
+  /**
+   * @param nodeClass
+   * @param nodeName
+   * @param inputs
+   * @return The label from the renderer for the class.
+   */
+  public String render(String nodeClass, String nodeName, Map<String, String> inputs) {
+    return resolve(nodeClass).render(nodeClass, nodeName, inputs);
+  }
+}
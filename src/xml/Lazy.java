@@ -0,0 +1,35 @@
+package xml;
+
+import java.util.function.Supplier;
+
+/**
+ * A value computed the first time it is asked for. Safe to share between threads; the value is only
+ * ever computed once, and may be null.
+ */
+class Lazy<T> implements Supplier<T> {
+  private Supplier<T> init;
+  private volatile boolean loaded = false;
+  private T value;
+
+  Lazy(Supplier<T> init) {
+    this.init = init;
+  }
+
+  @Override
+  public T get() {
+    if (!loaded) {
+      synchronized (this) {
+        if (!loaded) {
+          value = init.get();
+          init = null;
+          loaded = true;
+        }
+      }
+    }
+    return value;
+  }
+
+  boolean isLoaded() {
+    return loaded;
+  }
+}
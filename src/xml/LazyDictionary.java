@@ -0,0 +1,61 @@
+package xml;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A dictionary that is only loaded when it is first looked up in, so runs that never need it don't
+ * pay for reading its library.
+ */
+class LazyDictionary implements Dictionary {
+  private static final Logger LOGGER = Logger.getLogger("LazyDictionary");
+
+  private final String name;
+  private final Lazy<Dictionary> dictionary;
+
+  /**
+   * @param name Used for logging.
+   * @param loader Loads the dictionary. Called at most once.
+   */
+  LazyDictionary(String name, Supplier<Dictionary> loader) {
+    this.name = name;
+    this.dictionary = new Lazy<Dictionary>(() -> {
+      long start = System.nanoTime();
+      Dictionary d = loader.get();
+      LOGGER.info(String.format("Loaded %s (%d entries) in %d ms", name, d.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+      return d;
+    });
+  }
+
+  @Override
+  public String get(String id) {
+    return dictionary.get().get(id);
+  }
+
+  @Override
+  public boolean containsKey(String id) {
+    return dictionary.get().containsKey(id);
+  }
+
+  @Override
+  public int size() {
+    return dictionary.get().size();
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    dictionary.get().forEach(action);
+  }
+
+  public boolean isLoaded() {
+    return dictionary.isLoaded();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,104 @@
+package xml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads flowgraphs by scanning the file line by line. Each element has to sit on its own line, and
+ * the Inputs of a node are expected on the line right after the Node element.
+ */
+public class LineFlowGraphReader implements FlowGraphReader {
+  private static final int ID = 0;
+  private static final int NAME = 1;
+  private static final int CLASS = 2;
+  private static final int POS = 3;
+  private static final int NODE_IN = 4;
+  private static final int NODE_OUT = 5;
+  private static final int PORT_IN = 6;
+  private static final int PORT_OUT = 7;
+
+  private final BufferedReader r;
+  private final AttributeTokenizer t;
+  private String lastEntityName = "";
+  private boolean finished = false;
+
+  // Nodes of the current graph.
+  private NodeStore nodes = new NodeStore();
+  // List of edges.
+  private List<FlowGraphEdge> edges = new LinkedList<FlowGraphEdge>();
+
+  public LineFlowGraphReader(File xml) throws IOException {
+    this(xml, new StringInterner());
+  }
+
+  /**
+   * @param xml
+   * @param interner Where repeated strings are shared.
+   * @throws IOException
+   */
+  public LineFlowGraphReader(File xml, StringInterner interner) throws IOException {
+    t = new AttributeTokenizer(interner, "id", "name", "class", "pos", "nodein", "nodeout", "portin", "portout");
+    r = new BufferedReader(new FileReader(xml.getCanonicalPath()));
+  }
+
+  @Override
+  public FlowGraph next() throws IOException {
+    if (finished) {
+      return null;
+    }
+    String line = r.readLine();
+    while (line != null) {
+      t.reset(line);
+      // Keep track of the last read entity, if we are looking at a level or prefab file.
+      if (t.isElement("Entity") || t.isElement("Object")) {
+        lastEntityName = t.readAttributes().value(NAME);
+      }
+
+      if (t.isElement("Node")) {
+        t.readAttributes();
+        float[] coords = { 0, 0, 0 };
+        t.parseFloats(POS, coords);
+        String id = t.value(ID);
+        String name = t.value(NAME);
+        String nodeClass = t.value(CLASS);
+        nodes.add(id, name, nodeClass, coords[0], coords[1], coords[2]);
+        // Read inputs on next line, if applicable. Those of a node without an id are left out, like
+        // the other readers do.
+        if (!t.isSelfClosing()) {
+          line = r.readLine();
+          if (line != null && t.reset(line).isElement("Inputs") && id != null) {
+            t.readAllAttributes(nodes::putInput);
+          }
+        }
+      } else if (t.isElement("Edge")) {
+        t.readAttributes();
+        FlowGraphEdge edge = new FlowGraphEdge(t.value(NODE_IN), t.value(NODE_OUT), t.value(PORT_IN), t.value(PORT_OUT));
+        edges.add(edge);
+      } else if (t.isEndElement("FlowGraph") && lastEntityName != null && !lastEntityName.isEmpty()) {
+        // We've reached the end of the graph, but there may be more than one in this file.
+        return takeGraph(lastEntityName);
+      }
+      line = r.readLine();
+    }
+    finished = true;
+    return takeGraph(null);
+  }
+
+  private FlowGraph takeGraph(String entityName) {
+    nodes.compact();
+    FlowGraph graph = new FlowGraph(entityName, nodes, edges);
+    // Reset the tracked nodes and edges
+    nodes = new NodeStore();
+    edges = new LinkedList<FlowGraphEdge>();
+    return graph;
+  }
+
+  @Override
+  public void close() throws IOException {
+    r.close();
+  }
+}
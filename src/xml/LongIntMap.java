@@ -0,0 +1,166 @@
+package xml;
+
+import java.util.Arrays;
+
+/**
+ * Map from long to int with open addressing, so neither keys nor values are boxed. Not thread safe
+ * while it is being filled, but can be read from several threads once it is.
+ */
+public final class LongIntMap {
+  private static final int MIN_CAPACITY = 16;
+
+  /**
+   * Receives each entry of a map.
+   */
+  @FunctionalInterface
+  public interface EntryConsumer {
+    void accept(long key, int value);
+  }
+
+  // Key 0 marks a free slot, so an entry for 0 itself is kept apart.
+  private long[] keys;
+  private int[] values;
+  private int size = 0;
+  private boolean hasZero = false;
+  private int zeroValue;
+
+  public LongIntMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize Number of entries the map can take before it grows.
+   */
+  public LongIntMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity / 2 < expectedSize) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new int[capacity];
+  }
+
+  /**
+   * Spreads the key bits, since ids that differ only in their high bits are common.
+   */
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  private int slot(long key) {
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (keys[i] != 0 && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  /**
+   * @param key
+   * @param value
+   * @return Whether the key was new.
+   */
+  public boolean put(long key, int value) {
+    if (key == 0) {
+      boolean added = !hasZero;
+      hasZero = true;
+      zeroValue = value;
+      if (added) {
+        size++;
+      }
+      return added;
+    }
+    int i = slot(key);
+    values[i] = value;
+    if (keys[i] != 0) {
+      return false;
+    }
+    keys[i] = key;
+    size++;
+    // Kept at most half full, so probes stay short.
+    if (size * 2 > keys.length) {
+      grow();
+    }
+    return true;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int j = slot(oldKeys[i]);
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * @param key
+   * @param defaultValue
+   * @return The value for the key, or the default if there is none.
+   */
+  public int get(long key, int defaultValue) {
+    if (key == 0) {
+      return hasZero ? zeroValue : defaultValue;
+    }
+    int i = slot(key);
+    return keys[i] != 0 ? values[i] : defaultValue;
+  }
+
+  public boolean containsKey(long key) {
+    return key == 0 ? hasZero : keys[slot(key)] != 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Copies every entry of another map into this one, replacing existing values.
+   * @param other
+   */
+  public void putAll(LongIntMap other) {
+    other.forEach(this::put);
+  }
+
+  /**
+   * Calls the consumer for every entry, in no particular order.
+   * @param consumer
+   */
+  public void forEach(EntryConsumer consumer) {
+    if (hasZero) {
+      consumer.accept(0, zeroValue);
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        consumer.accept(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * @return Every key, sorted as signed values.
+   */
+  public long[] sortedKeys() {
+    long[] sorted = new long[size];
+    int n = 0;
+    if (hasZero) {
+      sorted[n++] = 0;
+    }
+    for (long key : keys) {
+      if (key != 0) {
+        sorted[n++] = key;
+      }
+    }
+    Arrays.sort(sorted);
+    return sorted;
+  }
+}
@@ -0,0 +1,203 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads flowgraphs by scanning the raw bytes of a memory mapped file. Only the attribute values that
+ * end up in nodes and edges are decoded. Files larger than a single mapping are read through a
+ * window that slides forward over the file.
+ */
+public class MappedFlowGraphReader implements FlowGraphReader {
+  private static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+  private static final int ID = 0;
+  private static final int NAME = 1;
+  private static final int CLASS = 2;
+  private static final int POS = 3;
+  private static final int NODE_IN = 4;
+  private static final int NODE_OUT = 5;
+  private static final int PORT_IN = 6;
+  private static final int PORT_OUT = 7;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long size;
+  private final int windowSize;
+  private final AttributeTokenizer t;
+
+  // Current mapping, covering [base, base + buf.limit()) of the file.
+  private MappedByteBuffer buf;
+  private long base;
+  private int offset;
+
+  private String lastEntityName = "";
+  private boolean finished = false;
+
+  // Whether the Inputs that follow belong to the last node added, until its end element is reached.
+  private boolean inNode = false;
+  private final float[] nodePos = new float[3];
+
+  private NodeStore nodes = new NodeStore();
+  private List<FlowGraphEdge> edges = new ArrayList<FlowGraphEdge>();
+
+  public MappedFlowGraphReader(File xml) throws IOException {
+    this(xml, new StringInterner());
+  }
+
+  /**
+   * @param xml
+   * @param interner Where repeated strings are shared.
+   * @throws IOException
+   */
+  public MappedFlowGraphReader(File xml, StringInterner interner) throws IOException {
+    this(xml, interner, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * @param xml
+   * @param interner Where repeated strings are shared.
+   * @param windowSize Largest number of bytes mapped at once. Must be larger than any single element.
+   * @throws IOException
+   */
+  MappedFlowGraphReader(File xml, StringInterner interner, int windowSize) throws IOException {
+    this.t = new AttributeTokenizer(interner, "id", "name", "class", "pos", "nodein", "nodeout", "portin",
+        "portout");
+    this.file = new RandomAccessFile(xml, "r");
+    this.channel = file.getChannel();
+    this.size = channel.size();
+    this.windowSize = windowSize;
+    map(0);
+  }
+
+  private void map(long position) throws IOException {
+    base = position;
+    offset = 0;
+    buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(windowSize, size - base));
+  }
+
+  @Override
+  public FlowGraph next() throws IOException {
+    if (finished) {
+      return null;
+    }
+    while (true) {
+      int limit = buf.limit();
+      int start = offset;
+      while (start < limit && buf.get(start) != '<') {
+        start++;
+      }
+      if (start >= limit) {
+        if (base + limit >= size) {
+          break;
+        }
+        map(base + limit);
+        continue;
+      }
+      int end = findTagEnd(start, limit);
+      if (end < 0) {
+        if (base + limit >= size) {
+          // Truncated tag at the end of the file.
+          break;
+        }
+        if (start == 0) {
+          throw new IOException("Element at byte " + base + " does not fit in the mapping window");
+        }
+        // The tag crosses the end of the window, map again starting from it.
+        map(base + start);
+        continue;
+      }
+      offset = end;
+      FlowGraph graph = element(start, end);
+      if (graph != null) {
+        return graph;
+      }
+    }
+    finished = true;
+    return takeGraph(null);
+  }
+
+  /**
+   * Finds the end of the tag that starts at the given index, skipping over quoted values, comments
+   * and processing instructions.
+   * @return Index after the closing bracket, or -1 if the tag is not complete within the window.
+   */
+  private int findTagEnd(int start, int limit) {
+    int i = start + 1;
+    if (i + 2 < limit && buf.get(i) == '!' && buf.get(i + 1) == '-' && buf.get(i + 2) == '-') {
+      for (i += 3; i + 2 < limit; i++) {
+        if (buf.get(i) == '-' && buf.get(i + 1) == '-' && buf.get(i + 2) == '>') {
+          return i + 3;
+        }
+      }
+      return -1;
+    }
+    byte quote = 0;
+    for (; i < limit; i++) {
+      byte b = buf.get(i);
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Handles one tag.
+   * @return A finished graph, if this tag closed one.
+   */
+  private FlowGraph element(int start, int end) {
+    t.reset(buf, start, end);
+    if (t.isElement("Entity") || t.isElement("Object")) {
+      // Keep track of the last read entity, if we are looking at a level or prefab file.
+      lastEntityName = t.readAttributes().value(NAME);
+    } else if (t.isElement("Node")) {
+      t.readAttributes();
+      String nodeId = t.value(ID);
+      Arrays.fill(nodePos, 0);
+      t.parseFloats(POS, nodePos);
+      nodes.add(nodeId, t.value(NAME), t.value(CLASS), nodePos[0], nodePos[1], nodePos[2]);
+      // Like the other readers, leaves out the inputs of a node without an id.
+      inNode = nodeId != null && !t.isSelfClosing();
+    } else if (t.isElement("Inputs")) {
+      if (inNode) {
+        t.readAllAttributes(nodes::putInput);
+      }
+    } else if (t.isEndElement("Node")) {
+      inNode = false;
+    } else if (t.isElement("Edge")) {
+      t.readAttributes();
+      edges.add(new FlowGraphEdge(t.value(NODE_IN), t.value(NODE_OUT), t.value(PORT_IN), t.value(PORT_OUT)));
+    } else if (t.isEndElement("FlowGraph") && lastEntityName != null && !lastEntityName.isEmpty()) {
+      // We've reached the end of the graph, but there may be more than one in this file.
+      return takeGraph(lastEntityName);
+    }
+    return null;
+  }
+
+  private FlowGraph takeGraph(String entityName) {
+    nodes.compact();
+    FlowGraph graph = new FlowGraph(entityName, nodes, edges);
+    nodes = new NodeStore();
+    edges = new ArrayList<FlowGraphEdge>();
+    return graph;
+  }
+
+  @Override
+  public void close() throws IOException {
+    buf = null;
+    file.close();
+  }
+}
@@ -0,0 +1,325 @@
+package xml;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The nodes of one flowgraph, stored by column rather than as an object per node. Classes and input
+ * keys and values, which repeat a lot, are indices into one string table, coordinates are packed into
+ * a single float array, and the inputs of all nodes share two flat arrays of keys and values. Ids are
+ * small decimal numbers and are kept as ints, with the odd id that isn't kept as text beside them.
+ * Names are nearly all different and are kept as they are.
+ * A large level then takes a few arrays per graph instead of millions of small objects.
+ *
+ * Nodes are added one at a time, each followed by its inputs. Once a reader hands the graph out the
+ * store is only read, and can be read from several threads at once.
+ */
+public class NodeStore {
+  private static final int INITIAL_NODES = 16;
+  private static final int INITIAL_INPUTS = 64;
+  // Stand-ins in the id column for a missing id and for one kept as text.
+  private static final int NO_ID = -1;
+  private static final int TEXT_ID = -2;
+
+  private final StringTable strings = new StringTable();
+  private int size = 0;
+  private int[] ids = new int[INITIAL_NODES];
+  // Ids that aren't numbers, by node. Only made once there is one.
+  private String[] textIds = null;
+  private String[] names = new String[INITIAL_NODES];
+  private int[] classes = new int[INITIAL_NODES];
+  private float[] positions = new float[INITIAL_NODES * 3];
+  // Inputs of node i are at inputStarts[i] up to inputStarts[i + 1].
+  private int[] inputStarts = new int[INITIAL_NODES + 1];
+  private int[] inputKeys = new int[INITIAL_INPUTS];
+  private int[] inputValues = new int[INITIAL_INPUTS];
+  private int inputCount = 0;
+  // Label of each node once it has been made, filled in after the store is compacted.
+  private String[] labels = null;
+
+  /**
+   * Adds a node. Inputs added afterwards belong to it.
+   * @param id
+   * @param name
+   * @param nodeClass
+   * @param x
+   * @param y
+   * @param z
+   * @return Index of the node.
+   */
+  public int add(String id, String name, String nodeClass, float x, float y, float z) {
+    if (size == ids.length) {
+      int capacity = size * 2;
+      ids = Arrays.copyOf(ids, capacity);
+      if (textIds != null) {
+        textIds = Arrays.copyOf(textIds, capacity);
+      }
+      names = Arrays.copyOf(names, capacity);
+      classes = Arrays.copyOf(classes, capacity);
+      positions = Arrays.copyOf(positions, capacity * 3);
+      inputStarts = Arrays.copyOf(inputStarts, capacity + 1);
+    }
+    ids[size] = parseId(id);
+    if (ids[size] == TEXT_ID) {
+      if (textIds == null) {
+        textIds = new String[ids.length];
+      }
+      textIds[size] = id;
+    }
+    names[size] = name;
+    classes[size] = strings.add(nodeClass);
+    positions[size * 3] = x;
+    positions[size * 3 + 1] = y;
+    positions[size * 3 + 2] = z;
+    size++;
+    inputStarts[size] = inputCount;
+    return size - 1;
+  }
+
+  /**
+   * Sets an input on the last node added, replacing any earlier value for the same key.
+   * @param key
+   * @param value
+   */
+  public void putInput(String key, String value) {
+    int k = strings.add(key);
+    int v = strings.add(value);
+    for (int i = inputStarts[size - 1]; i < inputCount; i++) {
+      if (inputKeys[i] == k) {
+        inputValues[i] = v;
+        return;
+      }
+    }
+    if (inputCount == inputKeys.length) {
+      inputKeys = Arrays.copyOf(inputKeys, inputCount * 2);
+      inputValues = Arrays.copyOf(inputValues, inputCount * 2);
+    }
+    inputKeys[inputCount] = k;
+    inputValues[inputCount] = v;
+    inputCount++;
+    inputStarts[size] = inputCount;
+  }
+
+  /**
+   * Drops the spare capacity and what is only needed while adding. Call once the graph is complete.
+   */
+  public void compact() {
+    ids = Arrays.copyOf(ids, size);
+    if (textIds != null) {
+      textIds = Arrays.copyOf(textIds, size);
+    }
+    names = Arrays.copyOf(names, size);
+    classes = Arrays.copyOf(classes, size);
+    positions = Arrays.copyOf(positions, size * 3);
+    inputStarts = Arrays.copyOf(inputStarts, size + 1);
+    inputKeys = Arrays.copyOf(inputKeys, inputCount);
+    inputValues = Arrays.copyOf(inputValues, inputCount);
+    strings.compact();
+    labels = new String[size];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public String getId(int node) {
+    int id = ids[node];
+    return id >= 0 ? Integer.toString(id) : id == NO_ID ? null : textIds[node];
+  }
+
+  /**
+   * @param id
+   * @return The id as a number if it is written the way {@link Integer#toString(int)} writes a
+   *         non-negative int, so it reads back the same; otherwise {@link #NO_ID} or {@link #TEXT_ID}.
+   */
+  private static int parseId(String id) {
+    if (id == null) {
+      return NO_ID;
+    }
+    int length = id.length();
+    // Nine digits always fit.
+    if (length == 0 || length > 9 || (length > 1 && id.charAt(0) == '0')) {
+      return TEXT_ID;
+    }
+    int n = 0;
+    for (int i = 0; i < length; i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return TEXT_ID;
+      }
+      n = n * 10 + (c - '0');
+    }
+    return n;
+  }
+
+  public String getName(int node) {
+    return names[node];
+  }
+
+  public String getNodeClass(int node) {
+    return strings.get(classes[node]);
+  }
+
+  public float getX(int node) {
+    return positions[node * 3];
+  }
+
+  public float getY(int node) {
+    return positions[node * 3 + 1];
+  }
+
+  public float getZ(int node) {
+    return positions[node * 3 + 2];
+  }
+
+  public int getInputCount(int node) {
+    return inputStarts[node + 1] - inputStarts[node];
+  }
+
+  /**
+   * @param node
+   * @param input Index of the input within the node, in the order they were added.
+   * @return
+   */
+  public String getInputKey(int node, int input) {
+    return strings.get(inputKeys[inputStarts[node] + input]);
+  }
+
+  public String getInputValue(int node, int input) {
+    return strings.get(inputValues[inputStarts[node] + input]);
+  }
+
+  /**
+   * @param node
+   * @param key
+   * @return The value of the input, or null if the node doesn't have it.
+   */
+  public String getInput(int node, String key) {
+    int i = findInput(node, key);
+    return i < 0 ? null : strings.get(inputValues[i]);
+  }
+
+  private int findInput(int node, Object key) {
+    for (int i = inputStarts[node]; i < inputStarts[node + 1]; i++) {
+      if (strings.get(inputKeys[i]).equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param node
+   * @return The label made for the node earlier, or null.
+   */
+  String getLabel(int node) {
+    return labels != null ? labels[node] : null;
+  }
+
+  /**
+   * Keeps the label made for a node. Threads labelling the same node at once can both store it,
+   * which is harmless as they make the same label.
+   * @param node
+   * @param label
+   */
+  void setLabel(int node, String label) {
+    if (labels != null) {
+      labels[node] = label;
+    }
+  }
+
+  /**
+   * @param node
+   * @return A view of the node. Each call makes a new one, so keep it if it is needed as a vertex.
+   */
+  public FlowGraphNode view(int node) {
+    return new FlowGraphNode(this, node);
+  }
+
+  /**
+   * @param node
+   * @return The inputs of a node as a read-only map, without copying them.
+   */
+  public Map<String, String> getInputs(int node) {
+    return new Inputs(node);
+  }
+
+  /**
+   * Read-only map over the inputs of one node.
+   */
+  private class Inputs extends AbstractMap<String, String> {
+    private final int node;
+
+    Inputs(int node) {
+      this.node = node;
+    }
+
+    @Override
+    public String get(Object key) {
+      int i = findInput(node, key);
+      return i < 0 ? null : strings.get(inputValues[i]);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return findInput(node, key) >= 0;
+    }
+
+    @Override
+    public int size() {
+      return getInputCount(node);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+      return new AbstractSet<Map.Entry<String, String>>() {
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+          return new Iterator<Map.Entry<String, String>>() {
+            private int i = inputStarts[node];
+
+            @Override
+            public boolean hasNext() {
+              return i < inputStarts[node + 1];
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Map.Entry<String, String> e = new SimpleImmutableEntry<String, String>(strings.get(inputKeys[i]),
+                  strings.get(inputValues[i]));
+              i++;
+              return e;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return getInputCount(node);
+        }
+      };
+    }
+
+    /**
+     * Lists the inputs in the same order as a HashMap filled in document order would, which is how
+     * they were kept before and what labels show.
+     */
+    @Override
+    public String toString() {
+      Map<String, String> copy = new HashMap<String, String>();
+      for (int i = inputStarts[node]; i < inputStarts[node + 1]; i++) {
+        copy.put(strings.get(inputKeys[i]), strings.get(inputValues[i]));
+      }
+      return copy.toString();
+    }
+  }
+}
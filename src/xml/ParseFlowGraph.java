@@ -1,49 +1,42 @@
 package xml;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.math.BigInteger;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DirectedPseudograph;
-import org.jgrapht.io.Attribute;
-import org.jgrapht.io.ComponentAttributeProvider;
-import org.jgrapht.io.ComponentNameProvider;
-import org.jgrapht.io.DOTExporter;
-import org.jgrapht.io.DefaultAttribute;
 import org.jgrapht.io.ExportException;
-import org.jgrapht.io.GraphExporter;
 
 public class ParseFlowGraph {
 
   private static final int MAX_LABEL_LENGTH = 100;
+  private static final int LABEL_CACHE_SIZE = 1 << 16;
 
   private static final Logger LOGGER = Logger.getLogger("ParseFlowGraph");
 
-  private static final String DOT_EXE = "D:\\PreyFiles\\graphviz-2.38\\release\\bin\\dot.exe";
   
-  private static final String HEADER_PATTERN = "<([A-Za-z]*?) ";
-  private static final String KEY_PATTERN = "([A-Za-z_]*?)=\"([A-Za-z0-9@&;,-:_/ ]*?)\"";
-  
-  private static final BigInteger TWO_POWER_64 = BigInteger.ONE.shiftLeft(64);
+  // Attribute indices used with the dictionary tokenizers.
+  private static final int ID = 0;
+  private static final int NAME = 1;
+  private static final int DISPLAY_NAME = 1;
+  private static final int LOCATION = 2;
   
   private static final String LOCATIONS_FILE = "Ark\\Campaign\\Locations.xml";
   private static final String OBJECTIVES_DIR = "Ark\\Campaign\\Objectives";
@@ -52,185 +45,371 @@ public class ParseFlowGraph {
   private static final String REMOTE_EVENTS_FILE = "Ark\\RemoteEventLibrary.xml";
   private static final String GAME_TOKENS_FILE = "Libs\\GameTokens\\GT_Global.xml";
 
+  // Names of the dictionaries in the snapshot.
+  private static final String GAME_TOKENS = "gameTokens";
+  private static final String GAME_METRICS = "gameMetrics";
+  private static final String REMOTE_EVENTS = "remoteEvents";
+  private static final String LOCATIONS = "locations";
+  private static final String CONNECTIVITY = "connectivity";
+  private static final String OBJECTIVES = "objectives";
+  private static final String TASKS = "tasks";
+  private static final String DESCRIPTIONS = "descriptions";
+  private static final String CLUES = "clues";
+
   private File sourceDir;
   private File outDir;
-  private HashMap<String, String> gameTokenIds;
-  private HashMap<String, String> gameMetricIds;
-  private HashMap<String, String> remoteEvents;
+  private Dictionary gameTokenIds;
+  private Dictionary gameMetricIds;
+  private Dictionary remoteEvents;
   private HashMap<String, String> conversations;
-  private HashMap<String, String> connectivity;
-  private HashMap<String, String> objectives;
-  private HashMap<String, String> tasks;
-  private HashMap<String, String> descriptions;
-  private HashMap<String, String> clues;
-  private HashMap<String, String> locationIds;
+  private Dictionary connectivity;
+  private Dictionary objectives;
+  private Dictionary tasks;
+  private Dictionary descriptions;
+  private Dictionary clues;
+  private Dictionary locationIds;
 
   
-  private List<String> unhandledClasses;
+  // Read from the libraries when there is no snapshot to use.
+  private final Lazy<DictionarySnapshot> snapshot = new Lazy<DictionarySnapshot>(this::openSnapshot);
+  private final Lazy<HashMap<String, String>> gameTokensLibrary = new Lazy<HashMap<String, String>>(this::getGameTokenIds);
+  private final Lazy<HashMap<String, String>> gameMetricsLibrary = new Lazy<HashMap<String, String>>(this::getGameMetricIds);
+  private final Lazy<HashMap<String, String>> remoteEventsLibrary = new Lazy<HashMap<String, String>>(this::getRemoteEvents);
+  private final Lazy<HashMap<String, String>> locationsLibrary = new Lazy<HashMap<String, String>>(this::parseLocationIds);
+  private final Lazy<HashMap<String, String>> connectivityLibrary = new Lazy<HashMap<String, String>>(this::getConnectivity);
+  private final Lazy<Objectives> objectivesLibrary = new Lazy<Objectives>(this::loadObjectives);
+  private final Lazy<IdIndex> idIndex = new Lazy<IdIndex>(this::buildIdIndex);
+
+  private Set<String> unhandledClasses;
+  private final LabelRenderers labelRenderers = new LabelRenderers(this::getDefaultLabel);
+  private final LabelCache labelCache = new LabelCache(LABEL_CACHE_SIZE);
+  private DotRenderer renderer = new DotRenderer(Runtime.getRuntime().availableProcessors());
+  private Java2DRenderer drawer = new Java2DRenderer(Runtime.getRuntime().availableProcessors());
+
+  private FlowGraphSource inputMode = InputMode.STAX;
+  private boolean mirrorSourceTree = false;
+  private boolean svgOutput = false;
 
   /**
-   * Describes a single node of the flowgraph.
-   * @author Kida
-   *
+   * Prepare for parsing flowgraph data
+   * @param sourceDir
+   * @param outDir
    */
-  private class FlowGraphNode {
-    String id;
-    String name;
-    String nodeClass;
-    float x;
-    float y;
-    float z;
-    HashMap<String, String> inputs;
+  public ParseFlowGraph(File sourceDir, File outDir) {
+    this.sourceDir = sourceDir;
+    this.outDir = outDir;
+    
+    // Dictionaries are loaded the first time a node needs them, from the snapshot of an earlier run
+    // if the libraries haven't changed since, otherwise from the library itself.
+    gameTokenIds = lazy(GAME_TOKENS, gameTokensLibrary);
+    gameMetricIds = lazy(GAME_METRICS, gameMetricsLibrary);
+    remoteEvents = lazy(REMOTE_EVENTS, remoteEventsLibrary);
+    locationIds = lazy(LOCATIONS, locationsLibrary);
+    connectivity = lazy(CONNECTIVITY, connectivityLibrary);
+    objectives = lazyIds(OBJECTIVES, () -> objectivesLibrary.get().objectives());
+    tasks = lazyIds(TASKS, () -> objectivesLibrary.get().tasks());
+    descriptions = lazyIds(DESCRIPTIONS, () -> objectivesLibrary.get().descriptions());
+    clues = lazyIds(CLUES, () -> objectivesLibrary.get().clues());
+    unhandledClasses = ConcurrentHashMap.newKeySet();
+    registerLabelRenderers();
+  }
 
-    public FlowGraphNode(String id, String name, String nodeClass, float x, float y, float z,
-        HashMap<String, String> inputs) {
-      this.id = id;
-      this.name = name;
-      this.nodeClass = nodeClass;
-      this.x = x;
-      this.y = y;
-      this.z = z;
-      this.inputs = inputs;
-    }
+  private Dictionary lazy(String name, Supplier<? extends Map<String, String>> library) {
+    return new LazyDictionary(name, () -> {
+      DictionarySnapshot s = snapshot.get();
+      // Numeric ids are found signed or unsigned, as they are once the index takes over.
+      return Dictionary.numericIds(s != null ? s.get(name) : Dictionary.of(library.get()));
+    });
+  }
 
-    public String getId() {
-      return id;
-    }
+  private Dictionary lazyIds(String name, Supplier<IdDictionary> library) {
+    return new LazyDictionary(name, () -> {
+      DictionarySnapshot s = snapshot.get();
+      return s != null ? s.get(name) : library.get();
+    });
+  }
 
-    public float getX() {
-      return x;
+  private DictionarySnapshot openSnapshot() {
+    try {
+      return DictionarySnapshot.open(new File(outDir, DictionarySnapshot.FILE_NAME), getDictionaryFiles());
+    } catch (IOException e) {
+      LOGGER.warning("Could not check dictionary snapshot: " + e);
+      return null;
     }
+  }
 
-    public float getY() {
-      return y;
+  /**
+   * Loads every dictionary up front, for runs over many files which will need most of them anyway.
+   * Libraries are read concurrently, and a new snapshot is written if the old one was out of date.
+   * Must be called before any file is parsed.
+   */
+  public void preloadDictionaries() {
+    if (snapshot.get() == null) {
+      loadLibraries();
     }
+    // Labels are looked up in the index from here on, rather than in each dictionary.
+    IdIndex index = idIndex.get();
+    gameTokenIds = index.dictionary(IdIndex.Kind.GAME_TOKEN);
+    gameMetricIds = index.dictionary(IdIndex.Kind.GAME_METRIC);
+    remoteEvents = index.dictionary(IdIndex.Kind.REMOTE_EVENT);
+    locationIds = index.dictionary(IdIndex.Kind.LOCATION);
+    connectivity = index.dictionary(IdIndex.Kind.CONNECTIVITY);
+    objectives = index.dictionary(IdIndex.Kind.OBJECTIVE);
+    tasks = index.dictionary(IdIndex.Kind.TASK);
+    descriptions = index.dictionary(IdIndex.Kind.DESCRIPTION);
+    clues = index.dictionary(IdIndex.Kind.CLUE);
+  }
 
-    public float getZ() {
-      return z;
+  /**
+   * Reads every library concurrently and writes a new snapshot of them.
+   */
+  private void loadLibraries() {
+    long start = System.nanoTime();
+    List<CompletableFuture<HashMap<String, String>>> loads = new ArrayList<CompletableFuture<HashMap<String, String>>>();
+    for (Lazy<HashMap<String, String>> library : Arrays.asList(gameTokensLibrary, gameMetricsLibrary,
+        remoteEventsLibrary, locationsLibrary, connectivityLibrary)) {
+      loads.add(CompletableFuture.supplyAsync(library));
     }
-
-    @Override
-    public String toString() {
-      return getLabel(nodeClass, name, inputs);
+    // Fans out over the objective files itself.
+    Objectives o = objectivesLibrary.get();
+
+    Map<String, HashMap<String, String>> loaded = new LinkedHashMap<String, HashMap<String, String>>();
+    loaded.put(GAME_TOKENS, loads.get(0).join());
+    loaded.put(GAME_METRICS, loads.get(1).join());
+    loaded.put(REMOTE_EVENTS, loads.get(2).join());
+    loaded.put(LOCATIONS, loads.get(3).join());
+    loaded.put(CONNECTIVITY, loads.get(4).join());
+    Map<String, IdDictionary> loadedIds = new LinkedHashMap<String, IdDictionary>();
+    loadedIds.put(OBJECTIVES, o.objectives());
+    loadedIds.put(TASKS, o.tasks());
+    loadedIds.put(DESCRIPTIONS, o.descriptions());
+    loadedIds.put(CLUES, o.clues());
+    LOGGER.info(String.format("Loaded dictionaries from the libraries in %d ms",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    try {
+      DictionarySnapshot.write(new File(outDir, DictionarySnapshot.FILE_NAME), getDictionaryFiles(), loaded, loadedIds);
+    } catch (IOException e) {
+      LOGGER.warning("Could not write dictionary snapshot: " + e);
     }
   }
 
   /**
-   * Describes an edge for the flowgraph.
-   * @author Kida
-   *
+   * @param id
+   * @return Name of the remote event, or the id itself if it isn't in the library.
    */
-  private class FlowGraphEdge extends DefaultEdge {
-    private static final long serialVersionUID = 1L;
-    String portIn;
-    String portOut;
-    String nodeIn;
-    String nodeOut;
-
-    public FlowGraphEdge(String nodeIn, String nodeOut, String portIn, String portOut) {
-      this.nodeIn = nodeIn;
-      this.nodeOut = nodeOut;
-      this.portIn = portIn;
-      this.portOut = portOut;
-    }
+  public String getRemoteEventName(String id) {
+    return translate(remoteEvents, id);
+  }
 
-    @Override
-    public String toString() {
-      return String.format("%s,%s", portOut, portIn);
-    }
+  /**
+   * @return Every id in every dictionary, with its kind and name. Loads all the dictionaries the
+   *         first time it is called.
+   */
+  public IdIndex getIdIndex() {
+    return idIndex.get();
+  }
 
+  private IdIndex buildIdIndex() {
+    long start = System.nanoTime();
+    IdIndex index = new IdIndex.Builder()
+        .add(IdIndex.Kind.GAME_TOKEN, gameTokenIds)
+        .add(IdIndex.Kind.GAME_METRIC, gameMetricIds)
+        .add(IdIndex.Kind.REMOTE_EVENT, remoteEvents)
+        .add(IdIndex.Kind.LOCATION, locationIds)
+        .add(IdIndex.Kind.CONNECTIVITY, connectivity)
+        .add(IdIndex.Kind.OBJECTIVE, objectives)
+        .add(IdIndex.Kind.TASK, tasks)
+        .add(IdIndex.Kind.DESCRIPTION, descriptions)
+        .add(IdIndex.Kind.CLUE, clues)
+        .build();
+    LOGGER.info(String.format("Indexed %d ids in %d ms", index.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    return index;
   }
 
   /**
-   * Prepare for parsing flowgraph data
-   * @param sourceDir
-   * @param outDir
+   * Reads every objective file, one task per file.
    */
-  public ParseFlowGraph(File sourceDir, File outDir) {
-    this.sourceDir = sourceDir;
-    this.outDir = outDir;
-    
-    // Initialize dictionaries
-    gameTokenIds = getGameTokenIds();
-    gameMetricIds = getGameMetricIds();
-    getObjectives();
-    getRemoteEvents();
-    parseLocationIds();
-    getConnectivity();
-    unhandledClasses = new ArrayList<String>();
+  private Objectives loadObjectives() {
+    // The names of all four dictionaries share one table.
+    StringTable strings = new StringTable();
+    List<CompletableFuture<Objectives>> loads = new ArrayList<CompletableFuture<Objectives>>();
+    for (File f : getObjectiveFiles()) {
+      loads.add(CompletableFuture.supplyAsync(() -> getObjectives(f, strings)));
+    }
+    // Merged in directory order, so later files win just like when they were read one by one.
+    Objectives merged = new Objectives(strings);
+    for (CompletableFuture<Objectives> load : loads) {
+      merged.addAll(load.join());
+    }
+    strings.compact();
+    return merged;
   }
 
   /**
-   * Parses an individual flowgraph file and exports to the out directory.
+   * Parses an individual flowgraph file and exports to the out directory. Once constructed, this
+   * can be called for several files at the same time.
    * @param xml File to parse.
+   * @return Counts of the graphs that were exported.
    * @throws IOException
    * @throws InterruptedException
    * @throws ExportException
    */
-  public void parse(File xml) throws IOException, InterruptedException, ExportException {
+  public ParseResult parse(File xml) throws IOException, InterruptedException, ExportException {
+    ParseResult result = parseQueued(xml);
+    renderer.flush();
+    result.awaitRenders();
+    return result;
+  }
+
+  /**
+   * Parses an individual flowgraph file and writes its dot files, but leaves the images to be
+   * rendered in batches with the graphs of other files. {@link ParseResult#getRenders()} completes
+   * once they are done.
+   * @param xml File to parse.
+   * @return Counts of the graphs that were exported.
+   * @throws IOException
+   * @throws ExportException
+   */
+  public ParseResult parseQueued(File xml) throws IOException, ExportException {
     LOGGER.info("Processing file " + xml.getName());
     if (!xml.exists()) {
       xml.createNewFile();
     }
     
-    // Map of node ID to node object.
-    HashMap<String, FlowGraphNode> nodes = new HashMap<String, FlowGraphNode>();
-    // List of edges.
-    List<FlowGraphEdge> edges = new LinkedList<FlowGraphEdge>();
+    ParseResult result = new ParseResult();
+    try (FlowGraphReader r = open(xml)) {
+      FlowGraph flowGraph = r.next();
+      while (flowGraph != null) {
+        Graph<FlowGraphNode, FlowGraphEdge> graph = createGraph(flowGraph.getNodes(), flowGraph.getEdges());
+        result.addRender(writeFile(graph, flowGraph.getSourceFile(xml), result));
+        result.add(flowGraph);
+        flowGraph = r.next();
+      }
+    }
+    return result;
+  }
 
-    try (BufferedReader r = new BufferedReader(new FileReader(xml.getCanonicalPath()));) {
-      String line = r.readLine();
-      String lastEntityName = "";
-      while (line != null) {
-        // Keep track of the last read entity, if we are looking at a level file.
-        if (line.contains("<Entity")) {
-          HashMap<String, String> entityKeys = getKeysFromLine(line);
-          lastEntityName = entityKeys.get("name");
-        }
+  /**
+   * @return Every library file the labels are built from, whether or not it exists.
+   */
+  public List<File> getDictionaryFiles() {
+    Path source = sourceDir.toPath();
+    List<File> files = new ArrayList<File>();
+    for (String name : new String[] { GAME_TOKENS_FILE, GAME_METRICS_FILE, REMOTE_EVENTS_FILE, LOCATIONS_FILE,
+        CONNECTIVITY_FILE }) {
+      files.add(source.resolve(name).toFile());
+    }
+    File[] objectiveFiles = source.resolve(OBJECTIVES_DIR).toFile().listFiles();
+    if (objectiveFiles != null) {
+      Arrays.sort(objectiveFiles);
+      files.addAll(Arrays.asList(objectiveFiles));
+    }
+    return files;
+  }
 
-        if (line.contains("<Node ")) {
-          HashMap<String, String> keys = getKeysFromLine(line);
-          String[] coords = { "0", "0", "0" };
-          if (keys.containsKey("pos")) {
-            coords = keys.get("pos").split(",");
-          }
-          // Read inputs on next line, if applicable
-          HashMap<String, String> inputKeys = new HashMap<String, String>();
-          if (!line.endsWith("/>")) {
-            line = r.readLine();
-            if (line.contains("<Inputs ")) {
-              inputKeys = getKeysFromLine(line);
-            }
-          }
-          FlowGraphNode node = new FlowGraphNode(keys.get("id"), keys.get("name"), keys.get("class"),
-              Float.parseFloat(coords[0]), Float.parseFloat(coords[1]), Float.parseFloat(coords[2]), inputKeys);
-          nodes.put(keys.get("id"), node);
-        } else if (line.contains("<Edge ")) {
-          HashMap<String, String> keys = getKeysFromLine(line);
-          FlowGraphEdge edge = new FlowGraphEdge(keys.get("nodein"), keys.get("nodeout"), keys.get("portin"), keys.get("portout"));
-          edges.add(edge);
-        } else if (line.contains("</FlowGraph>") && lastEntityName != null && !lastEntityName.isEmpty()) {
-          // We've reached the end of the graph, but there may be more than one in this file.
-          File newXml = new File(xml.getCanonicalPath().replace(".xml", "") + "_" + lastEntityName + ".xml");
-          Graph<FlowGraphNode, FlowGraphEdge> graph = createGraph(nodes, edges);
-          writeFile(graph, newXml);
-          // Reset the tracked nodes and edges
-          nodes = new HashMap<String, FlowGraphNode>();
-          edges = new LinkedList<FlowGraphEdge>();
-        }
-        line = r.readLine();
-      }
+  /**
+   * Sets whether output files go into subdirectories matching where the source file sits under the
+   * source directory. Needed when processing a whole corpus, where many files share the same name.
+   * @param mirrorSourceTree
+   */
+  public void setMirrorSourceTree(boolean mirrorSourceTree) {
+    this.mirrorSourceTree = mirrorSourceTree;
+  }
+
+  /**
+   * Sets whether each graph is written as an SVG file, instead of as a dot file rendered to an image.
+   * @param svgOutput
+   */
+  public void setSvgOutput(boolean svgOutput) {
+    this.svgOutput = svgOutput;
+  }
+
+  public boolean isSvgOutput() {
+    return svgOutput;
+  }
+
+  /**
+   * @return What is written for each graph and where, so that a change can be told apart from output
+   *         written by an earlier run.
+   */
+  public String getOutputSettings() {
+    String files;
+    if (svgOutput) {
+      files = "svg";
+    } else if (drawer == null) {
+      files = "dot,graphviz";
+    } else {
+      files = drawer.isTiled() ? "dot,image,tiles" : "dot,image";
+    }
+    return files + (mirrorSourceTree ? ",mirror" : ",flat");
+  }
+
+  /**
+   * Gets the directory that the output for a source file goes to.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  private Path getOutputDir(File xml) throws IOException {
+    Path outPath = outDir.toPath();
+    if (!mirrorSourceTree) {
+      return outPath;
     }
-    Graph<FlowGraphNode, FlowGraphEdge> graph = createGraph(nodes, edges);
-    writeFile(graph, xml);
+    Path source = sourceDir.getCanonicalFile().toPath();
+    Path parent = xml.getCanonicalFile().toPath().getParent();
+    if (parent == null || !parent.startsWith(source)) {
+      return outPath;
+    }
+    outPath = outPath.resolve(source.relativize(parent).toString());
+    Files.createDirectories(outPath);
+    return outPath;
+  }
+
+  /**
+   * @return Sorted names of the node classes seen so far that didn't have special parsers.
+   */
+  public List<String> getUnhandledClasses() {
+    List<String> classes = new ArrayList<String>(unhandledClasses);
+    Collections.sort(classes);
+    return classes;
+  }
+
+  /**
+   * Prints the node classes seen so far that didn't have special parsers.
+   */
+  public void printUnhandledClasses() {
+    System.out.println("Classes that didn't have special parsers:");
+    getUnhandledClasses().stream().forEach((s) -> {
+      System.out.println(s);
+      return;
+    });
+  }
+
+  /**
+   * Sets how flowgraph XML is read. Defaults to {@link InputMode#STAX}.
+   * @param inputMode
+   */
+  public void setInputMode(FlowGraphSource inputMode) {
+    this.inputMode = inputMode;
   }
  
+  /**
+   * Opens a reader over a flowgraph file, using the configured input mode.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  public FlowGraphReader open(File xml) throws IOException {
+    return inputMode.open(xml);
+  }
+
   /**
    * Convert dictionary of nodes to a Graph object that can become a dot file.
    * @param nodes
    * @return
    */
-  private static Graph<FlowGraphNode, FlowGraphEdge> createGraph(HashMap<String, FlowGraphNode> nodes, List<FlowGraphEdge> edges) {
+  public static Graph<FlowGraphNode, FlowGraphEdge> createGraph(Map<String, FlowGraphNode> nodes, List<FlowGraphEdge> edges) {
     Graph<FlowGraphNode, FlowGraphEdge> graph = new DirectedPseudograph<>(FlowGraphEdge.class);
     
     for (FlowGraphNode n : nodes.values()) {
@@ -244,44 +423,147 @@ public class ParseFlowGraph {
     return graph;
   }
 
-  private void writeFile(Graph<FlowGraphNode, FlowGraphEdge> graph, File xml)
-      throws ExportException, IOException, InterruptedException {
-    ComponentNameProvider<FlowGraphNode> vertexIdProvider = node -> node.getId();
-    ComponentNameProvider<FlowGraphNode> vertexLabelProvider = node -> node.toString();
-    ComponentNameProvider<FlowGraphEdge> edgeLabelProvider = edge -> edge.toString();
-    ComponentAttributeProvider<FlowGraphNode> nodeAttrProvider = node -> {
-      HashMap<String, Attribute> attrs = new HashMap<>();
-      attrs.put("pos",
-          DefaultAttribute.createAttribute(String.format("%f, %f!", node.getX(), node.getY() * 0.75)));
-      return attrs;
-    };
-
-    ComponentAttributeProvider<FlowGraphEdge> edgeAttrProvider = edge -> {
-      HashMap<String, Attribute> attrs = new HashMap<>();
-      return attrs;
-    };
-
-    GraphExporter<FlowGraphNode, FlowGraphEdge> exporter = new DOTExporter<FlowGraphNode, FlowGraphEdge>(
-        vertexIdProvider, vertexLabelProvider, edgeLabelProvider, nodeAttrProvider, edgeAttrProvider);
-    Writer writer = new StringWriter();
-    exporter.exportGraph(graph, writer);
-
-    File dotFile = outDir.toPath().resolve(xml.getName().replace("xml", "dot")).toFile();
+  private CompletableFuture<?> writeFile(Graph<FlowGraphNode, FlowGraphEdge> graph, File xml, ParseResult result)
+      throws ExportException, IOException {
+    if (svgOutput) {
+      result.addOutput(exportSvg(graph, xml));
+      return CompletableFuture.completedFuture(null);
+    }
+    File dotFile = exportDot(graph, xml);
+    result.addOutput(dotFile);
+    return submitRender(graph, dotFile, xml).thenAccept(result::addOutput);
+  }
+
+  /**
+   * Writes a graph as SVG to the out directory, drawn from its pinned positions without going through
+   * dot.
+   * @param graph
+   * @param xml File the graph is named after.
+   * @return The SVG file.
+   * @throws IOException
+   */
+  public File exportSvg(Graph<FlowGraphNode, FlowGraphEdge> graph, File xml) throws IOException {
+    File svgFile = getOutputDir(xml).resolve(xml.getName().replace("xml", "svg")).toFile();
+    LOGGER.info("Writing " + svgFile.getCanonicalPath());
+    try (SvgWriter w = new SvgWriter(svgFile.toPath())) {
+      w.write(graph, this::getLabel);
+    }
+    return svgFile;
+  }
+
+  /**
+   * Queues a graph to be rendered to its image: drawn in process, or by Graphviz from its dot file if
+   * drawing was turned off with {@link #setDrawer(Java2DRenderer)}.
+   * @param graph
+   * @param dotFile The graph as exported by {@link #exportDot(Graph, File)}.
+   * @param xml File the graph is named after.
+   * @return Completes with the file written once the image is.
+   * @throws IOException
+   */
+  public CompletableFuture<File> submitRender(Graph<FlowGraphNode, FlowGraphEdge> graph, File dotFile, File xml)
+      throws IOException {
+    File imgFile = getImageFile(xml);
+    if (drawer != null) {
+      return drawer.submit(graph, this::getLabel, imgFile);
+    }
+    return renderer.submit(dotFile, imgFile, graph.vertexSet().size(), graph.edgeSet().size())
+        .thenApply(r -> imgFile);
+  }
+
+  /**
+   * Exports a graph to a dot file in the out directory.
+   * @param graph
+   * @param xml File the graph is named after.
+   * @return The dot file.
+   * @throws ExportException
+   * @throws IOException
+   */
+  public File exportDot(Graph<FlowGraphNode, FlowGraphEdge> graph, File xml) throws ExportException, IOException {
+    File dotFile = getOutputDir(xml).resolve(xml.getName().replace("xml", "dot")).toFile();
     LOGGER.info("Writing " + dotFile.getCanonicalPath());
-    dotFile.createNewFile();
-    try (BufferedWriter w = new BufferedWriter(new FileWriter(dotFile.getCanonicalPath()));) {
-      w.write(writer.toString());
+    try (DotWriter w = new DotWriter(dotFile.toPath())) {
+      w.write(graph, this::getLabel);
     }
-    File imgFile = outDir.toPath().resolve(xml.getName().replace("xml", "png")).toFile();
-    convertDot(dotFile, imgFile);
+    return dotFile;
+  }
 
-    Collections.sort(unhandledClasses);
+  /**
+   * Gets the image file that the graph named after a file is rendered to.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  public File getImageFile(File xml) throws IOException {
+    return getOutputDir(xml).resolve(xml.getName().replace("xml", "png")).toFile();
+  }
 
-    System.out.println("Classes that didn't have special parsers:");
-    unhandledClasses.stream().forEach((s) -> {
-      System.out.println(s);
-      return;
-    });
+  /**
+   * Renders a dot file to an image.
+   * @param dotFile
+   * @param imgFile
+   * @param nodes Number of nodes in the graph, which sets how long the render may take.
+   * @param edges Number of edges in the graph.
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public void render(File dotFile, File imgFile, int nodes, int edges) throws IOException, InterruptedException {
+    renderer.render(dotFile, imgFile, nodes, edges);
+  }
+
+  /**
+   * @return What runs Graphviz, to set up how many processes it runs, where dot is, how long
+   *         renders may take and how graphs are batched.
+   */
+  public DotRenderer getRenderer() {
+    return renderer;
+  }
+
+  /**
+   * Replaces what runs Graphviz, e.g. to allow a different number of processes at once.
+   * @param renderer
+   */
+  public void setRenderer(DotRenderer renderer) {
+    this.renderer = renderer;
+  }
+
+  /**
+   * @return What draws images in process, or null if Graphviz renders them.
+   */
+  public Java2DRenderer getDrawer() {
+    return drawer;
+  }
+
+  /**
+   * @param drawer What draws images in process, or null to render them with Graphviz instead.
+   */
+  public void setDrawer(Java2DRenderer drawer) {
+    this.drawer = drawer;
+  }
+
+  /**
+   * Sets how nodes of a class are labelled, replacing the built in label for the class if it has one.
+   * @param nodeClass
+   * @param renderer
+   */
+  public void registerLabelRenderer(String nodeClass, LabelRenderer renderer) {
+    labelRenderers.register(nodeClass, renderer);
+    unhandledClasses.remove(nodeClass);
+    labelCache.clear();
+  }
+
+  /**
+   * Gets the label of a node. It is made once per node, and nodes with the same class, name and inputs
+   * share one label.
+   * @param node
+   * @return
+   */
+  public String getLabel(FlowGraphNode node) {
+    String label = node.getLabel();
+    if (label == null) {
+      label = labelCache.get(node.getNodeClass(), node.getName(), node.getInputs(), this::makeLabel);
+      node.setLabel(label);
+    }
+    return label;
   }
 
   /**
@@ -291,190 +573,8 @@ public class ParseFlowGraph {
    * @param inputKeys
    * @return
    */
-  private String getLabel(String nodeClass, String nodeName, HashMap<String, String> inputKeys) {
-    String label = nodeClass + " " + inputKeys.toString();
-    switch (nodeClass) {
-      case "Mission:GameTokenSet":
-        String tokenId = inputKeys.get("gametokenid_token");
-        String value = inputKeys.get("value");
-        String tokenTranslated = (gameTokenIds.containsKey(tokenId)) ? gameTokenIds.get(tokenId) : tokenId;
-        label = String.format("SET TOKEN %s=\"%s\"", tokenTranslated, value);
-        break;
-      case "Mission:GameTokenCheck":
-        tokenId = inputKeys.get("gametokenid_token");
-        value = inputKeys.get("checkvalue");
-        tokenTranslated = (gameTokenIds.containsKey(tokenId)) ? gameTokenIds.get(tokenId) : tokenId;
-        label = String.format("CHECK TOKEN %s=\"%s\"", tokenTranslated, value);
-        break;
-      case "Mission:GameTokenUpdated":
-        tokenId = inputKeys.get("gametokenid_token");
-        value = inputKeys.get("compare_value");
-        tokenTranslated = (gameTokenIds.containsKey(tokenId)) ? gameTokenIds.get(tokenId) : tokenId;
-        label = String.format("ON UPDATED TOKEN %s=\"%s\"", tokenTranslated, value);
-        break;
-      case "Mission:GameTokenGet":
-        tokenId = inputKeys.get("gametokenid_token");
-        tokenTranslated = (gameTokenIds.containsKey(tokenId)) ? gameTokenIds.get(tokenId) : tokenId;
-        label = String.format("GET TOKEN %s", tokenTranslated);
-        break;
-      case "Mission:GameTokenModify":
-        tokenId = inputKeys.get("gametokenid_token");
-        value = inputKeys.get("value");
-        String op = inputKeys.get("op");
-        String type = inputKeys.get("type");
-        tokenTranslated = (gameTokenIds.containsKey(tokenId)) ? gameTokenIds.get(tokenId) : tokenId;
-        label = String.format("MODIFY TOKEN %s\nOp=\"%s\" Type=\"%s\" Value=\"%s\"", tokenTranslated, op, type, value);
-        break;
-      case "Ark:GameMetric":
-        String metricId = inputKeys.get("gamemetric_metric");
-        String metric = gameMetricIds.containsKey(metricId) ? gameMetricIds.get(metricId) : metricId;
-        label = String.format("METRIC \"%s\"", metric);
-        break;
-      case "Ark:IncrementGameMetric":
-        metricId = inputKeys.get("gamemetric_metric");
-        metric = gameMetricIds.containsKey(metricId) ? gameMetricIds.get(metricId) : metricId;
-        String incAmnt = inputKeys.get("amount");
-        label = String.format("INC METRIC \"%s\"\nBY %s", gameMetricIds.get(metric), incAmnt);
-        break;
-      case "_commentbox":
-      case "_comment":
-        label = String.format("[[%s]]", nodeName);
-        break;
-      case "Debug:DisplayMessage":
-        label = String.format("[[[%s]]]", inputKeys.get("message"));
-        break;
-      case "Ark:Debug:ConsoleEvent":
-        label = String.format("CMD \"%s\"", inputKeys.get("command"));
-        break;
-      case "Ark:EndGame":
-        label = "END GAME";
-        break;
-      case "Ark:Objectives:ObjectiveState":
-        String objectiveId = inputKeys.get("objective_objective");
-        if (objectiveId.contains("-")) {
-          objectiveId = signedToUnsignedLong(objectiveId);
-        }
-        String objective = objectives.containsKey(objectiveId) ? objectives.get(objectiveId) : objectiveId;
-        label = String.format("OBJECTIVE \"%s\"", objective);
-        if (inputKeys.containsKey("settracked") && inputKeys.get("settracked").equals("1")) {
-          label += "\nSET TRACKED";
-        }
-        break;
-      case "Ark:Objectives:GetObjectiveState":
-        objectiveId = inputKeys.get("objective_objective");
-        if (objectiveId.contains("-")) {
-          objectiveId = signedToUnsignedLong(objectiveId);
-        }
-        objective = objectives.containsKey(objectiveId) ? objectives.get(objectiveId) : objectiveId;
-        label = String.format("GET OBJECTIVE STATE\n\"%s\"", objective);
-        break;
-      case "Ark:Objectives:ObjectiveNotification":
-        objectiveId = inputKeys.get("objective_objective");
-        if (objectiveId.contains("-")) {
-          objectiveId = signedToUnsignedLong(objectiveId);
-        }
-        objective = objectives.containsKey(objectiveId) ? objectives.get(objectiveId) : objectiveId;
-        label = String.format("OBJECTIVE NOTIFICATION\n\"%s\"", objective);
-        break;
-      case "Ark:Objectives:SetTrackedObjective":
-        objectiveId = inputKeys.get("objective_objective");
-        if (objectiveId.contains("-")) {
-          objectiveId = signedToUnsignedLong(objectiveId);
-        }
-        objective = objectives.containsKey(objectiveId) ? objectives.get(objectiveId) : objectiveId;
-        label = String.format("SET TRACKED OBJECTIVE\n\"%s\"", objective);
-        break;
-      case "Ark:Objectives:SetObjectiveDescription":
-        objectiveId = inputKeys.get("objectivedescription_description");
-        if (objectiveId.contains("-")) {
-          objectiveId = signedToUnsignedLong(objectiveId);
-        }
-        String desc = descriptions.containsKey(objectiveId) ? descriptions.get(objectiveId) : objectiveId;
-        label = String.format("SET DESC \"%s\"", desc);
-        break;
-      case "Ark:Objectives:TaskState":
-        String taskId = inputKeys.get("task_task");
-        if (taskId.contains("-")) {
-          taskId = signedToUnsignedLong(taskId);
-        }
-        String task = tasks.containsKey(taskId) ? tasks.get(taskId) : taskId;
-        label = String.format("TASK %s", task);
-        break;
-      case "Ark:Objectives:SetTaskLocation":
-        taskId = inputKeys.get("task_task");
-        if (taskId.contains("-")) {
-          taskId = signedToUnsignedLong(taskId);
-        }
-        task = tasks.containsKey(taskId) ? tasks.get(taskId) : taskId;
-        String locId = inputKeys.get("location_location");
-        String loc = locationIds.containsKey(locId) ? locationIds.get(locId) : locId;
-        label = String.format("SET TASK LOCATION\n%s=%s", task, loc);
-        break;
-      case "Ark:Objectives:SetTaskMarkerEntity":
-        taskId = inputKeys.get("task_task");
-        if (taskId.contains("-")) {
-          taskId = signedToUnsignedLong(taskId);
-        }
-        task = tasks.containsKey(taskId) ? tasks.get(taskId) : taskId;
-        label = String.format("SET TASK MARKER ENTITY\n%s", task);
-        break;
-      case "Ark:Objectives:GetTaskState":
-        taskId = inputKeys.get("task_task");
-        if (taskId.contains("-")) {
-          taskId = signedToUnsignedLong(taskId);
-        }
-        task = tasks.containsKey(taskId) ? tasks.get(taskId) : taskId;
-        label = String.format("TASK %s", task);
-        break;
-      case "Ark:Objectives:ShowClue":
-        String clueId = inputKeys.get("objectiveclue_clue");
-        if (clueId.contains("-")) {
-          clueId = signedToUnsignedLong(clueId);
-        }
-        String clue = clues.containsKey(clueId) ? clues.get(clueId) : clueId;
-        label = String.format("SHOW CLUE %s", clue);
-        break;
-      case "Ark:RemoteEvent":
-        String remoteEventId = inputKeys.get("remoteevent_event");
-        String remoteEvent = remoteEvents.containsKey(remoteEventId) ? remoteEvents.get(remoteEventId) : remoteEventId;
-        label = String.format("RECEIVE EVENT\n\"%s\"", remoteEvent);
-        break;
-      case "Ark:SendRemoteEvent":
-        remoteEventId = inputKeys.get("remoteevent_event");
-        remoteEvent = remoteEvents.containsKey(remoteEventId) ? remoteEvents.get(remoteEventId) : remoteEventId;
-        label = String.format("SEND EVENT\n\"%s\"", remoteEvent);
-        break;
-      case "Ark:Locations:CheckLocation":
-        locId = inputKeys.get("location_location");
-        loc = locationIds.containsKey(locId) ? locationIds.get(locId) : locId;
-        label = String.format("CHECK LOCATION %s", loc);
-        break;
-      case "Ark:Locations:SetAlternateName":
-        locId = inputKeys.get("location_location");
-        loc = locationIds.containsKey(locId) ? locationIds.get(locId) : locId;
-        label = String.format("SET ALT LOCATION NAME\n%s", loc);
-        break;
-      case "Ark:Roster:SetLocation":
-        locId = inputKeys.get("location_location");
-        loc = locationIds.containsKey(locId) ? locationIds.get(locId) : locId;
-        label = String.format("SET ROSTER %s \nTO LOCATION %s", "TODO: roster", loc);
-        break;
-      case "Ark:PDA:SetStationAccessState":
-        String pathId = inputKeys.get("stationaccess_access");
-        String pathName = connectivity.get(pathId);
-        label = pathName;
-        break;
-      case "Ark:PDA:SetStationAirlockState":
-        String airlockId = inputKeys.get("stationairlock_airlock");
-        String location = locationIds.get(connectivity.get(airlockId));
-        label = String.format("Airlock to %s", location);
-        break;
-      default:
-        if (!unhandledClasses.contains(nodeClass)) {
-          unhandledClasses.add(nodeClass);
-        }
-        break;
-    }
+  private String makeLabel(String nodeClass, String nodeName, Map<String, String> inputKeys) {
+    String label = labelRenderers.render(nodeClass, nodeName, inputKeys);
     if (label == null || label.contains("null")) {
       label += "\n" + nodeClass + " " + inputKeys.toString() + "(was null)";
       System.out.println(nodeClass + " " + inputKeys.toString());
@@ -485,18 +585,136 @@ public class ParseFlowGraph {
     return label;
   }
 
+  /**
+   * Labels the node classes we know about.
+   */
+  private void registerLabelRenderers() {
+    registerLabelRenderer("Mission:GameTokenSet",
+        (c, name, in) -> String.format("SET TOKEN %s=\"%s\"", translate(gameTokenIds, in.get("gametokenid_token")),
+            in.get("value")));
+    registerLabelRenderer("Mission:GameTokenCheck",
+        (c, name, in) -> String.format("CHECK TOKEN %s=\"%s\"", translate(gameTokenIds, in.get("gametokenid_token")),
+            in.get("checkvalue")));
+    registerLabelRenderer("Mission:GameTokenUpdated",
+        (c, name, in) -> String.format("ON UPDATED TOKEN %s=\"%s\"",
+            translate(gameTokenIds, in.get("gametokenid_token")), in.get("compare_value")));
+    registerLabelRenderer("Mission:GameTokenGet",
+        (c, name, in) -> String.format("GET TOKEN %s", translate(gameTokenIds, in.get("gametokenid_token"))));
+    registerLabelRenderer("Mission:GameTokenModify",
+        (c, name, in) -> String.format("MODIFY TOKEN %s\nOp=\"%s\" Type=\"%s\" Value=\"%s\"",
+            translate(gameTokenIds, in.get("gametokenid_token")), in.get("op"), in.get("type"), in.get("value")));
+    registerLabelRenderer("Ark:GameMetric",
+        (c, name, in) -> String.format("METRIC \"%s\"", translate(gameMetricIds, in.get("gamemetric_metric"))));
+    registerLabelRenderer("Ark:IncrementGameMetric", (c, name, in) -> {
+      String metric = translate(gameMetricIds, in.get("gamemetric_metric"));
+      return String.format("INC METRIC \"%s\"\nBY %s", gameMetricIds.get(metric), in.get("amount"));
+    });
+    LabelRenderer comment = (c, name, in) -> String.format("[[%s]]", name);
+    registerLabelRenderer("_commentbox", comment);
+    registerLabelRenderer("_comment", comment);
+    registerLabelRenderer("Debug:DisplayMessage", (c, name, in) -> String.format("[[[%s]]]", in.get("message")));
+    registerLabelRenderer("Ark:Debug:ConsoleEvent", (c, name, in) -> String.format("CMD \"%s\"", in.get("command")));
+    registerLabelRenderer("Ark:EndGame", (c, name, in) -> "END GAME");
+    registerLabelRenderer("Ark:Objectives:ObjectiveState", (c, name, in) -> {
+      String label = String.format("OBJECTIVE \"%s\"", translateId(objectives, in.get("objective_objective")));
+      if (in.containsKey("settracked") && in.get("settracked").equals("1")) {
+        label += "\nSET TRACKED";
+      }
+      return label;
+    });
+    registerLabelRenderer("Ark:Objectives:GetObjectiveState", (c, name, in) -> String
+        .format("GET OBJECTIVE STATE\n\"%s\"", translateId(objectives, in.get("objective_objective"))));
+    registerLabelRenderer("Ark:Objectives:ObjectiveNotification", (c, name, in) -> String
+        .format("OBJECTIVE NOTIFICATION\n\"%s\"", translateId(objectives, in.get("objective_objective"))));
+    registerLabelRenderer("Ark:Objectives:SetTrackedObjective", (c, name, in) -> String
+        .format("SET TRACKED OBJECTIVE\n\"%s\"", translateId(objectives, in.get("objective_objective"))));
+    registerLabelRenderer("Ark:Objectives:SetObjectiveDescription", (c, name, in) -> String
+        .format("SET DESC \"%s\"", translateId(descriptions, in.get("objectivedescription_description"))));
+    LabelRenderer taskState = (c, name, in) -> String.format("TASK %s", translateId(tasks, in.get("task_task")));
+    registerLabelRenderer("Ark:Objectives:TaskState", taskState);
+    registerLabelRenderer("Ark:Objectives:GetTaskState", taskState);
+    registerLabelRenderer("Ark:Objectives:SetTaskLocation",
+        (c, name, in) -> String.format("SET TASK LOCATION\n%s=%s", translateId(tasks, in.get("task_task")),
+            translate(locationIds, in.get("location_location"))));
+    registerLabelRenderer("Ark:Objectives:SetTaskMarkerEntity", (c, name, in) -> String
+        .format("SET TASK MARKER ENTITY\n%s", translateId(tasks, in.get("task_task"))));
+    registerLabelRenderer("Ark:Objectives:ShowClue",
+        (c, name, in) -> String.format("SHOW CLUE %s", translateId(clues, in.get("objectiveclue_clue"))));
+    registerLabelRenderer("Ark:RemoteEvent", (c, name, in) -> String
+        .format("RECEIVE EVENT\n\"%s\"", translate(remoteEvents, in.get("remoteevent_event"))));
+    registerLabelRenderer("Ark:SendRemoteEvent", (c, name, in) -> String
+        .format("SEND EVENT\n\"%s\"", translate(remoteEvents, in.get("remoteevent_event"))));
+    registerLabelRenderer("Ark:Locations:CheckLocation",
+        (c, name, in) -> String.format("CHECK LOCATION %s", translate(locationIds, in.get("location_location"))));
+    registerLabelRenderer("Ark:Locations:SetAlternateName", (c, name, in) -> String
+        .format("SET ALT LOCATION NAME\n%s", translate(locationIds, in.get("location_location"))));
+    registerLabelRenderer("Ark:Roster:SetLocation", (c, name, in) -> String.format("SET ROSTER %s \nTO LOCATION %s",
+        "TODO: roster", translate(locationIds, in.get("location_location"))));
+    registerLabelRenderer("Ark:PDA:SetStationAccessState",
+        (c, name, in) -> connectivity.get(in.get("stationaccess_access")));
+    registerLabelRenderer("Ark:PDA:SetStationAirlockState", (c, name, in) -> String.format("Airlock to %s",
+        locationIds.get(connectivity.get(in.get("stationairlock_airlock")))));
+  }
+
+  /**
+   * Label for classes without a renderer of their own.
+   */
+  private String getDefaultLabel(String nodeClass, String nodeName, Map<String, String> inputKeys) {
+    if (nodeClass != null) {
+      unhandledClasses.add(nodeClass);
+    }
+    // Inputs past what fits in a label aren't shown, so stop once there is enough. Lists them in the
+    // order of a HashMap filled in document order, as toString() would. Copying the map in one go would
+    // size the table for its entries and change that order for some input counts.
+    Map<String, String> inputs = inputKeys;
+    if (!(inputKeys instanceof HashMap)) {
+      inputs = new HashMap<String, String>();
+      for (Map.Entry<String, String> input : inputKeys.entrySet()) {
+        inputs.put(input.getKey(), input.getValue());
+      }
+    }
+    StringBuilder label = new StringBuilder(MAX_LABEL_LENGTH + 16).append(nodeClass).append(" {");
+    boolean first = true;
+    for (Map.Entry<String, String> input : inputs.entrySet()) {
+      if (label.length() >= MAX_LABEL_LENGTH) {
+        return label.toString();
+      }
+      if (!first) {
+        label.append(", ");
+      }
+      first = false;
+      label.append(input.getKey()).append('=').append(input.getValue());
+    }
+    return label.append('}').toString();
+  }
+
+  /**
+   * @param dictionary
+   * @param id
+   * @return The name of the id, or the id itself if the dictionary doesn't have it.
+   */
+  private static String translate(Dictionary dictionary, String id) {
+    return dictionary.containsKey(id) ? dictionary.get(id) : id;
+  }
+
+  /**
+   * Like {@link #translate(Dictionary, String)}, for the 64 bit ids of objectives and the like, which
+   * are shown unsigned when they aren't found.
+   */
+  private static String translateId(Dictionary dictionary, String id) {
+    return dictionary.containsKey(id) ? dictionary.get(id) : signedToUnsignedLong(id);
+  }
 
   private HashMap<String, String> getGameMetricIds() {
     HashMap<String, String> gameMetricIds = new HashMap<String, String>();
+    AttributeTokenizer t = new AttributeTokenizer("id", "name");
     File gameMetricsFile = sourceDir.toPath().resolve(GAME_METRICS_FILE).toFile();
     try (BufferedReader r = new BufferedReader(new FileReader(gameMetricsFile.getCanonicalPath()));) {
       String line = r.readLine();
       while (line != null) {
-        if (line.contains("<ArkGameMetricProperties")) {
-          HashMap<String, String> keys = getKeysFromLine(line);
-          String id = keys.get("id");
-          String name = keys.get("name");
-          gameMetricIds.put(id, name);
+        if (t.reset(line).isElement("ArkGameMetricProperties")) {
+          t.readAttributes();
+          gameMetricIds.put(t.value(ID), t.value(NAME));
         }
         line = r.readLine();
       }
@@ -508,15 +726,14 @@ public class ParseFlowGraph {
 
   private HashMap<String, String> getGameTokenIds() {
     HashMap<String, String> gameTokenIds = new HashMap<String, String>();
+    AttributeTokenizer t = new AttributeTokenizer("id", "name");
     File gameTokenFile = sourceDir.toPath().resolve(GAME_TOKENS_FILE).toFile();
     try (BufferedReader r = new BufferedReader(new FileReader(gameTokenFile.getCanonicalPath()));) {
       String line = r.readLine();
       while (line != null) {
-        if (line.contains("<GameToken ")) {
-          HashMap<String, String> keys = getKeysFromLine(line);
-          String id = keys.get("id");
-          String name = keys.get("name");
-          gameTokenIds.put(id, name);
+        if (t.reset(line).isElement("GameToken")) {
+          t.readAttributes();
+          gameTokenIds.put(t.value(ID), t.value(NAME));
         }
         line = r.readLine();
       }
@@ -527,159 +744,171 @@ public class ParseFlowGraph {
   }
 
 
-  private void getRemoteEvents() {
-    remoteEvents = new HashMap<String, String>();
+  private HashMap<String, String> getRemoteEvents() {
+    HashMap<String, String> remoteEvents = new HashMap<String, String>();
+    AttributeTokenizer t = new AttributeTokenizer("id", "name");
     File remoteEventsFile = sourceDir.toPath().resolve(REMOTE_EVENTS_FILE).toFile();
 
     try (BufferedReader r = new BufferedReader(new FileReader(remoteEventsFile.getCanonicalPath()));) {
       String line = r.readLine();
 
       while (line != null) {
-        String header = getLineHeader(line);
-        if (header.equals("ArkRemoteEvent")) {
-          HashMap<String, String> keys = getKeysFromLine(line);
-          remoteEvents.put(keys.get("id"), keys.get("name"));
+        if (t.reset(line).isElement("ArkRemoteEvent")) {
+          t.readAttributes();
+          remoteEvents.put(t.value(ID), t.value(NAME));
         }
         line = r.readLine();
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
+    return remoteEvents;
+  }
+
+
+  /**
+   * Objectives, tasks, descriptions and clues, from one or more objective files. Ids are kept as
+   * longs, and names as indices into a string table.
+   */
+  private static class Objectives {
+    final StringTable strings;
+    final LongIntMap objectives = new LongIntMap();
+    final LongIntMap tasks = new LongIntMap();
+    final LongIntMap descriptions = new LongIntMap();
+    final LongIntMap clues = new LongIntMap();
+
+    Objectives(StringTable strings) {
+      this.strings = strings;
+    }
+
+    void addAll(Objectives other) {
+      objectives.putAll(other.objectives);
+      tasks.putAll(other.tasks);
+      descriptions.putAll(other.descriptions);
+      clues.putAll(other.clues);
+    }
+
+    /**
+     * Adds an entry, unless the id isn't a number.
+     */
+    void put(LongIntMap map, String id, String name) {
+      if (IdDictionary.isId(id)) {
+        try {
+          map.put(IdDictionary.parseId(id), strings.add(name));
+        } catch (NumberFormatException e) {
+          LOGGER.warning("Objective id out of range: " + id);
+        }
+      }
+    }
+
+    IdDictionary objectives() {
+      return new IdDictionary(objectives, strings);
+    }
+
+    IdDictionary tasks() {
+      return new IdDictionary(tasks, strings);
+    }
+
+    IdDictionary descriptions() {
+      return new IdDictionary(descriptions, strings);
+    }
+
+    IdDictionary clues() {
+      return new IdDictionary(clues, strings);
+    }
   }
 
+  private File[] getObjectiveFiles() {
+    File[] files = sourceDir.toPath().resolve(OBJECTIVES_DIR).toFile().listFiles();
+    return files == null ? new File[0] : files;
+  }
 
-  private void getObjectives() {
-    objectives = new HashMap<String, String>();
-    tasks = new HashMap<String, String>();
-    descriptions = new HashMap<String, String>();
-    clues = new HashMap<String, String>();
-
-    Path objectivesDir = sourceDir.toPath().resolve(OBJECTIVES_DIR);
-
-    for (File f : objectivesDir.toFile().listFiles()) {
-      try (BufferedReader r = new BufferedReader(new FileReader(f.getCanonicalPath()));) {
-        String line = r.readLine();
-        String objectiveId = "";
-        boolean needObjectiveDesc = false;
-        while (line != null) {
-          String header = getLineHeader(line);
-          HashMap<String, String> keys = getKeysFromLine(line);
-          switch (header) {
-            case "Objective":
-              // Use the next task, description, or clue display name as the objective name
-              needObjectiveDesc = true;
-              objectiveId = keys.get("id");
-              break;
-            case "Task":
-              tasks.put(keys.get("id"), keys.get("displayname"));
-              if (needObjectiveDesc) {
-                objectives.put(objectiveId, keys.get("displayname"));
-                needObjectiveDesc = false;
-              }
-              break;
-            case "Desc":
-              descriptions.put(keys.get("id"), keys.get("displayname"));
-              break;
-            case "Clue":
-              clues.put(keys.get("id"), keys.get("displayname"));
-              if (needObjectiveDesc) {
-                objectives.put(objectiveId, keys.get("displayname"));
-                needObjectiveDesc = false;
-              }
-              break;
-            default:
-              break;
+  private Objectives getObjectives(File f, StringTable strings) {
+    Objectives o = new Objectives(strings);
+    AttributeTokenizer t = new AttributeTokenizer("id", "displayname");
+    try (BufferedReader r = new BufferedReader(new FileReader(f.getCanonicalPath()));) {
+      String line = r.readLine();
+      String objectiveId = "";
+      boolean needObjectiveDesc = false;
+      while (line != null) {
+        t.reset(line);
+        if (t.isElement("Objective")) {
+          // Use the next task, description, or clue display name as the objective name
+          needObjectiveDesc = true;
+          objectiveId = t.readAttributes().value(ID);
+        } else if (t.isElement("Task")) {
+          t.readAttributes();
+          o.put(o.tasks, t.value(ID), t.value(DISPLAY_NAME));
+          if (needObjectiveDesc) {
+            o.put(o.objectives, objectiveId, t.value(DISPLAY_NAME));
+            needObjectiveDesc = false;
+          }
+        } else if (t.isElement("Desc")) {
+          t.readAttributes();
+          o.put(o.descriptions, t.value(ID), t.value(DISPLAY_NAME));
+        } else if (t.isElement("Clue")) {
+          t.readAttributes();
+          o.put(o.clues, t.value(ID), t.value(DISPLAY_NAME));
+          if (needObjectiveDesc) {
+            o.put(o.objectives, objectiveId, t.value(DISPLAY_NAME));
+            needObjectiveDesc = false;
           }
-          line = r.readLine();
         }
-      } catch (Exception e) {
-        e.printStackTrace();
+        line = r.readLine();
       }
+    } catch (Exception e) {
+      e.printStackTrace();
     }
+    return o;
   }
 
-  private void parseLocationIds() {
-    locationIds = new HashMap<String, String>();
+  private HashMap<String, String> parseLocationIds() {
+    HashMap<String, String> locationIds = new HashMap<String, String>();
+    AttributeTokenizer t = new AttributeTokenizer("id", "name");
     Path locationsFile = sourceDir.toPath().resolve(LOCATIONS_FILE);
     try (BufferedReader r = new BufferedReader(new FileReader(locationsFile.toString()));) {
       String line = r.readLine();
       while (line != null) {
-        if (line.contains("<ArkLocation ")) {
-          Map<String, String> keys = getKeysFromLine(line);
-          String id = keys.get("id");
-          String name = keys.get("name");
-          locationIds.put(id, name);
+        if (t.reset(line).isElement("ArkLocation")) {
+          t.readAttributes();
+          locationIds.put(t.value(ID), t.value(NAME));
         }
         line = r.readLine();
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
+    return locationIds;
   }
 
-  private void getConnectivity() {
-    connectivity = new HashMap<String, String>();
+  private HashMap<String, String> getConnectivity() {
+    HashMap<String, String> connectivity = new HashMap<String, String>();
+    AttributeTokenizer t = new AttributeTokenizer("id", "name", "location");
     Path connectivityFile = sourceDir.toPath().resolve(CONNECTIVITY_FILE);
     
     try (BufferedReader r = new BufferedReader(new FileReader(connectivityFile.toString()));) {
       String line = r.readLine();
       while (line != null) {
-        if (line.contains("<ArkStationPath ")) {
-          Map<String, String> keys = getKeysFromLine(line);
-          String id = keys.get("id");
-          String name = keys.get("name");
-          connectivity.put(id, name);
-        } else if (line.contains("<ArkStationAirlock ")) {
-          Map<String, String> keys = getKeysFromLine(line);
-          String id = keys.get("id");
-          String location = keys.get("location");
-          connectivity.put(id, location);
+        t.reset(line);
+        if (t.isElement("ArkStationPath")) {
+          t.readAttributes();
+          connectivity.put(t.value(ID), t.value(NAME));
+        } else if (t.isElement("ArkStationAirlock")) {
+          t.readAttributes();
+          connectivity.put(t.value(ID), t.value(LOCATION));
         }
         line = r.readLine();
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
-    
-  }
-
-  private static void convertDot(File dot, File out) throws IOException, InterruptedException {
-    String execCommand = DOT_EXE + " -Kneato -n -Tjpg " + dot.getCanonicalPath() + " -o " + out.getCanonicalPath();
-    Process p = Runtime.getRuntime().exec(execCommand);    
-    p.waitFor(10, TimeUnit.SECONDS);
-    p.destroy();
-    if (p.exitValue() == 0) {
-      System.out.println("Finished executing dot convert.");
-    } else {
-      System.out.println("Error occurred while executing dot convert.");
-    }
+    return connectivity;
   }
 
   private static String signedToUnsignedLong(String signedLong) {
-    BigInteger b = new BigInteger(signedLong);
-    if (b.signum() < 0) {
-      b = b.add(TWO_POWER_64);
-    }
-    return b.toString();
-  }
-
-  private static String getLineHeader(String line) {
-    Pattern p = Pattern.compile(HEADER_PATTERN);
-    Matcher m = p.matcher(line);
-    if (m.find()) {
-      return m.group(1);
-    }
-    return "";
-  }
-
-  private static HashMap<String, String> getKeysFromLine(String line) {
-    HashMap<String, String> keyPairs = new HashMap<String, String>();
-    Pattern p = Pattern.compile(KEY_PATTERN);
-
-    Matcher m = p.matcher(line);
-    while (m.find()) {
-      keyPairs.put(m.group(1).toLowerCase(), m.group(2));
+    if (!signedLong.contains("-")) {
+      return signedLong;
     }
-    return keyPairs;
+    return Long.toUnsignedString(Long.parseLong(signedLong));
   }
 }
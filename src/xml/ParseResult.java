@@ -0,0 +1,80 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Counts of what was exported from a single flowgraph file, the files written for it, and the renders
+ * of its graphs.
+ */
+public class ParseResult {
+  private int graphs;
+  private int nodes;
+  private int edges;
+  private final List<CompletableFuture<?>> renders = new ArrayList<CompletableFuture<?>>();
+  // Added to by the renders as they finish.
+  private final List<File> outputs = Collections.synchronizedList(new ArrayList<File>());
+
+  void add(FlowGraph graph) {
+    graphs++;
+    nodes += graph.getNodeCount();
+    edges += graph.getEdges().size();
+  }
+
+  void addRender(CompletableFuture<?> render) {
+    renders.add(render);
+  }
+
+  void addOutput(File output) {
+    outputs.add(output);
+  }
+
+  public int getGraphs() {
+    return graphs;
+  }
+
+  public int getNodes() {
+    return nodes;
+  }
+
+  public int getEdges() {
+    return edges;
+  }
+
+  /**
+   * @return Every file written for the graphs, complete once the renders are.
+   */
+  public List<File> getOutputs() {
+    synchronized (outputs) {
+      return new ArrayList<File>(outputs);
+    }
+  }
+
+  /**
+   * @return Completes once every graph of the file is rendered, exceptionally if any failed.
+   */
+  public CompletableFuture<Void> getRenders() {
+    return CompletableFuture.allOf(renders.toArray(new CompletableFuture<?>[renders.size()]));
+  }
+
+  /**
+   * Waits for every graph of the file to be rendered.
+   * @throws IOException If a render failed.
+   * @throws InterruptedException
+   */
+  public void awaitRenders() throws IOException, InterruptedException {
+    try {
+      getRenders().get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package xml;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.jgrapht.Graph;
+
+/**
+ * Where everything of a flowgraph goes when it is drawn at its pinned positions, the way Graphviz
+ * draws it with neato -n, so the images and the SVG output show the same picture. Coordinates are in
+ * points with y going down: a node at editor position x, y is centred on x, -y * 0.75, as in the dot
+ * file.
+ *
+ * Sizes follow the Graphviz defaults: labels are 14 point serif, and ellipses go round the label and
+ * its margins and are at least 0.75 by 0.5 inches.
+ */
+class PinnedLayout {
+  static final Font FONT = new Font(Font.SERIF, Font.PLAIN, 14);
+  static final double LINE_HEIGHT = 14 * 1.2;
+  static final double ARROW_LENGTH = 10;
+  static final double PAD = 4;
+  private static final double MIN_WIDTH = 54;
+  private static final double MIN_HEIGHT = 36;
+  private static final double MARGIN_X = 0.11 * 72;
+  private static final double MARGIN_Y = 0.055 * 72;
+  private static final double ARROW_HALF_WIDTH = 3.5;
+  // How far a loop from a node to itself reaches out of the node.
+  private static final double LOOP_SIZE = 18;
+  // Fractional metrics, as both outputs place text at fractional positions.
+  private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+  // Distance from the top of a line to the baseline of its text, with the text centred in the line.
+  private static final double BASELINE = getBaseline();
+
+  /**
+   * A node, as an ellipse around the lines of its label.
+   */
+  static class Box {
+    final double x;
+    final double y;
+    final double rx;
+    final double ry;
+    final String[] lines;
+    final double[] widths;
+
+    Box(double x, double y, double rx, double ry, String[] lines, double[] widths) {
+      this.x = x;
+      this.y = y;
+      this.rx = rx;
+      this.ry = ry;
+      this.lines = lines;
+      this.widths = widths;
+    }
+
+    /**
+     * @return Baseline of the first line of the label.
+     */
+    double getFirstBaseline() {
+      return y - lines.length * LINE_HEIGHT / 2 + BASELINE;
+    }
+  }
+
+  /**
+   * An edge: a straight line, or for a loop a cubic curve, that ends at the base of its arrowhead,
+   * and its label.
+   */
+  static class Route {
+    final boolean loop;
+    // x1, y1, x2, y2 for a line; start, two control points and end for a curve.
+    final double[] path;
+    // Tip and the two corners of the base.
+    final double[] arrow;
+    final String label;
+    final double labelX;
+    final double labelBaseline;
+    final double labelWidth;
+
+    Route(boolean loop, double[] path, double[] arrow, String label, double labelX, double labelY) {
+      this.loop = loop;
+      this.path = path;
+      this.arrow = arrow;
+      this.label = label;
+      this.labelX = labelX;
+      this.labelBaseline = labelY - LINE_HEIGHT / 2 + BASELINE;
+      this.labelWidth = getWidth(label);
+    }
+  }
+
+  private final Graph<FlowGraphNode, FlowGraphEdge> graph;
+  private final Map<FlowGraphNode, Box> boxes = new HashMap<FlowGraphNode, Box>();
+  private double minX = Double.POSITIVE_INFINITY;
+  private double minY = Double.POSITIVE_INFINITY;
+  private double maxX = Double.NEGATIVE_INFINITY;
+  private double maxY = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Measures every node and edge label.
+   * @param graph
+   * @param labels Label of each node.
+   */
+  PinnedLayout(Graph<FlowGraphNode, FlowGraphEdge> graph, Function<FlowGraphNode, String> labels) {
+    this.graph = graph;
+    for (FlowGraphNode node : graph.vertexSet()) {
+      Box box = measure(node, labels.apply(node));
+      boxes.put(node, box);
+      include(box.x - box.rx, box.y - box.ry);
+      include(box.x + box.rx, box.y + box.ry);
+    }
+    for (FlowGraphEdge edge : graph.edgeSet()) {
+      // Loops stick out to the right, with their label beyond them.
+      Route route = route(edge);
+      include(route.labelX - route.labelWidth / 2, route.labelBaseline - BASELINE);
+      include(route.labelX + route.labelWidth / 2, route.labelBaseline - BASELINE + LINE_HEIGHT);
+    }
+    if (boxes.isEmpty()) {
+      minX = minY = maxX = maxY = 0;
+    }
+  }
+
+  private void include(double x, double y) {
+    minX = Math.min(minX, x);
+    maxX = Math.max(maxX, x);
+    minY = Math.min(minY, y);
+    maxY = Math.max(maxY, y);
+  }
+
+  /**
+   * Sizes the ellipse around a label like Graphviz does: the label and its margins, scaled out so the
+   * ellipse goes round the corners.
+   */
+  private static Box measure(FlowGraphNode node, String label) {
+    String[] lines = (label == null ? "" : label).split("\n", -1);
+    double[] widths = new double[lines.length];
+    double textWidth = 0;
+    for (int i = 0; i < lines.length; i++) {
+      widths[i] = getWidth(lines[i]);
+      textWidth = Math.max(textWidth, widths[i]);
+    }
+    double width = Math.max(MIN_WIDTH, (textWidth + MARGIN_X * 2) * Math.sqrt(2));
+    double height = Math.max(MIN_HEIGHT, (lines.length * LINE_HEIGHT + MARGIN_Y * 2) * Math.sqrt(2));
+    return new Box(node.getX(), -node.getY() * 0.75, width / 2, height / 2, lines, widths);
+  }
+
+  private static double getBaseline() {
+    LineMetrics metrics = FONT.getLineMetrics("", FRC);
+    return (LINE_HEIGHT - metrics.getAscent() - metrics.getDescent()) / 2 + metrics.getAscent();
+  }
+
+  static double getWidth(String text) {
+    return FONT.getStringBounds(text, FRC).getWidth();
+  }
+
+  /**
+   * @return Left edge of the drawing, padding included.
+   */
+  double getLeft() {
+    return minX - PAD;
+  }
+
+  /**
+   * @return Top edge of the drawing, padding included.
+   */
+  double getTop() {
+    return minY - PAD;
+  }
+
+  double getWidth() {
+    return maxX - minX + PAD * 2;
+  }
+
+  double getHeight() {
+    return maxY - minY + PAD * 2;
+  }
+
+  Iterable<Box> getBoxes() {
+    return boxes.values();
+  }
+
+  Box getBox(FlowGraphNode node) {
+    return boxes.get(node);
+  }
+
+  /**
+   * @param edge
+   * @return How to draw the edge.
+   */
+  Route route(FlowGraphEdge edge) {
+    Box from = boxes.get(graph.getEdgeSource(edge));
+    Box to = boxes.get(graph.getEdgeTarget(edge));
+    String label = edge.portOut + "," + edge.portIn;
+    if (from == to) {
+      // Out of the right of the node and back in.
+      double dy = from.ry * 0.5;
+      double x = from.x + from.rx * Math.sqrt(0.75);
+      double reach = from.x + from.rx + LOOP_SIZE * 1.5;
+      double[] arrow = arrow(reach, from.y + dy * 2, x, from.y + dy);
+      return new Route(true, new double[] { x, from.y - dy, reach, from.y - dy * 2, reach, from.y + dy * 2,
+          base(arrow)[0], base(arrow)[1] }, arrow, label, from.x + from.rx + LOOP_SIZE * 2 + getWidth(label) / 2,
+          from.y);
+    }
+    double dx = to.x - from.x;
+    double dy = to.y - from.y;
+    if (dx == 0 && dy == 0) {
+      // On top of each other, nothing to show.
+      return new Route(false, new double[] { from.x, from.y, from.x, from.y }, null, label, from.x, from.y);
+    }
+    // Where the line leaves the first ellipse and meets the second.
+    double leave = 1 / Math.hypot(dx / from.rx, dy / from.ry);
+    double meet = 1 - 1 / Math.hypot(dx / to.rx, dy / to.ry);
+    if (leave >= meet) {
+      // The nodes overlap, go from centre to centre.
+      leave = 0;
+      meet = 1;
+    }
+    double[] arrow = arrow(from.x, from.y, from.x + dx * meet, from.y + dy * meet);
+    double[] base = base(arrow);
+    return new Route(false, new double[] { from.x + dx * leave, from.y + dy * leave, base[0], base[1] }, arrow,
+        label, from.x + dx / 2, from.y + dy / 2);
+  }
+
+  /**
+   * An arrowhead pointing from one point to the other, ending at the second.
+   */
+  private static double[] arrow(double fromX, double fromY, double tipX, double tipY) {
+    double length = Math.hypot(tipX - fromX, tipY - fromY);
+    double ux = length == 0 ? 0 : (tipX - fromX) / length;
+    double uy = length == 0 ? 0 : (tipY - fromY) / length;
+    double baseX = tipX - ux * ARROW_LENGTH;
+    double baseY = tipY - uy * ARROW_LENGTH;
+    return new double[] { tipX, tipY, baseX - uy * ARROW_HALF_WIDTH, baseY + ux * ARROW_HALF_WIDTH,
+        baseX + uy * ARROW_HALF_WIDTH, baseY - ux * ARROW_HALF_WIDTH };
+  }
+
+  private static double[] base(double[] arrow) {
+    return new double[] { (arrow[2] + arrow[4]) / 2, (arrow[3] + arrow[5]) / 2 };
+  }
+}
@@ -0,0 +1,175 @@
+package xml;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads flowgraphs with a streaming StAX parser, so it does not depend on how the file is laid out
+ * across lines.
+ */
+public class StaxFlowGraphReader implements FlowGraphReader {
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  private final StringInterner interner;
+  private final InputStream in;
+  private final XMLStreamReader r;
+  private String lastEntityName = "";
+  private boolean finished = false;
+
+  // Whether the Inputs that follow belong to the last node added, until its end element is reached.
+  private boolean inNode = false;
+
+  private NodeStore nodes = new NodeStore();
+  private List<FlowGraphEdge> edges = new ArrayList<FlowGraphEdge>();
+
+  public StaxFlowGraphReader(File xml) throws IOException {
+    this(xml, new StringInterner());
+  }
+
+  /**
+   * @param xml
+   * @param interner Where repeated strings are shared.
+   * @throws IOException
+   */
+  public StaxFlowGraphReader(File xml, StringInterner interner) throws IOException {
+    this.interner = interner;
+    in = new BufferedInputStream(new FileInputStream(xml), 1 << 16);
+    if (xml.length() == 0) {
+      // Nothing to parse, and StAX rejects an empty document.
+      r = null;
+      return;
+    }
+    try {
+      r = FACTORY.createXMLStreamReader(in);
+    } catch (XMLStreamException e) {
+      in.close();
+      throw new IOException("Could not open " + xml.getName(), e);
+    }
+  }
+
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    return factory;
+  }
+
+  @Override
+  public FlowGraph next() throws IOException {
+    if (finished) {
+      return null;
+    }
+    if (r == null) {
+      finished = true;
+      return takeGraph(null);
+    }
+    try {
+      while (r.hasNext()) {
+        int event = r.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          startElement(r.getLocalName());
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          String element = r.getLocalName();
+          if (element.equals("Node")) {
+            inNode = false;
+          } else if (element.equals("FlowGraph") && lastEntityName != null && !lastEntityName.isEmpty()) {
+            // We've reached the end of the graph, but there may be more than one in this file.
+            return takeGraph(lastEntityName);
+          }
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Malformed flowgraph XML", e);
+    }
+    finished = true;
+    return takeGraph(null);
+  }
+
+  private void startElement(String element) {
+    switch (element) {
+      case "Entity":
+      case "Object":
+        // Keep track of the last read entity, if we are looking at a level or prefab file.
+        lastEntityName = getAttribute("name");
+        break;
+      case "Node":
+        String nodeId = interner.intern(getAttribute("id"));
+        float[] nodePos = parsePos(getAttribute("pos"));
+        nodes.add(nodeId, interner.intern(getAttribute("name")), interner.intern(getAttribute("class")), nodePos[0],
+            nodePos[1], nodePos[2]);
+        inNode = nodeId != null;
+        break;
+      case "Inputs":
+        if (inNode) {
+          for (int i = 0; i < r.getAttributeCount(); i++) {
+            nodes.putInput(interner.intern(r.getAttributeLocalName(i).toLowerCase()),
+                interner.intern(r.getAttributeValue(i)));
+          }
+        }
+        break;
+      case "Edge":
+        edges.add(new FlowGraphEdge(interner.intern(getAttribute("nodein")), interner.intern(getAttribute("nodeout")),
+            interner.intern(getAttribute("portin")), interner.intern(getAttribute("portout"))));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Looks up an attribute on the current element, ignoring case like the line-based reader does.
+   * @param key Lower case attribute name.
+   * @return
+   */
+  private String getAttribute(String key) {
+    for (int i = 0; i < r.getAttributeCount(); i++) {
+      if (r.getAttributeLocalName(i).equalsIgnoreCase(key)) {
+        return r.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+
+  private static float[] parsePos(String pos) {
+    float[] coords = { 0, 0, 0 };
+    if (pos != null) {
+      String[] parts = pos.split(",");
+      for (int i = 0; i < parts.length && i < coords.length; i++) {
+        coords[i] = Float.parseFloat(parts[i]);
+      }
+    }
+    return coords;
+  }
+
+  private FlowGraph takeGraph(String entityName) {
+    nodes.compact();
+    FlowGraph graph = new FlowGraph(entityName, nodes, edges);
+    nodes = new NodeStore();
+    edges = new ArrayList<FlowGraphEdge>();
+    return graph;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (r != null) {
+        r.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared instance for each distinct string, so the classes, input keys, port names and
+ * small values that every node of a level repeats ("Mission:GameTokenSet", "gametokenid_token", "0",
+ * "1") are only kept once. Unlike {@link String#intern()} the strings go away with the interner,
+ * which can be scoped to a single file or shared by every file of a corpus.
+ *
+ * Long strings are rarely repeated and are passed through as they are. Safe to use from several
+ * threads at once.
+ */
+public class StringInterner {
+  /** Longest string that is interned. */
+  public static final int MAX_LENGTH = 64;
+
+  private static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+  private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>(256);
+  private final int maxSize;
+
+  public StringInterner() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param maxSize Number of strings after which new ones are passed through instead of kept, so a
+   *        corpus full of unique values can't grow the interner without bound.
+   */
+  public StringInterner(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @param s
+   * @return The shared instance equal to the string, or the string itself if it is the first of its
+   *         kind, too long, or the interner is full.
+   */
+  public String intern(String s) {
+    if (s == null || s.length() > MAX_LENGTH) {
+      return s;
+    }
+    String shared = strings.get(s);
+    if (shared != null) {
+      return shared;
+    }
+    if (strings.size() >= maxSize) {
+      return s;
+    }
+    shared = strings.putIfAbsent(s, s);
+    return shared != null ? shared : s;
+  }
+
+  /**
+   * @return Number of distinct strings kept.
+   */
+  public int size() {
+    return strings.size();
+  }
+}
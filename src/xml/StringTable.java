@@ -0,0 +1,70 @@
+package xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Strings stored once each and referred to by index, so dictionaries that share names don't keep a
+ * copy per entry. Strings can be added from several threads at once.
+ */
+public final class StringTable {
+  /** Index standing for null. */
+  public static final int NULL = -1;
+
+  private final ArrayList<String> strings = new ArrayList<String>();
+  private Map<String, Integer> indices = new HashMap<String, Integer>();
+
+  /**
+   * @param s
+   * @return Index of the string, which is added if it isn't in the table yet.
+   */
+  public synchronized int add(String s) {
+    if (s == null) {
+      return NULL;
+    }
+    if (indices == null) {
+      throw new IllegalStateException("String table is already compacted");
+    }
+    Integer index = indices.get(s);
+    if (index == null) {
+      index = strings.size();
+      strings.add(s);
+      indices.put(s, index);
+    }
+    return index;
+  }
+
+  /**
+   * @param index
+   * @return The string at the index, or null for {@link #NULL}.
+   */
+  public String get(int index) {
+    return index == NULL ? null : strings.get(index);
+  }
+
+  /**
+   * @param s
+   * @return Index of the string, or {@link #NULL} if it isn't in the table.
+   */
+  public synchronized int indexOf(String s) {
+    if (s == null || indices == null) {
+      return NULL;
+    }
+    Integer index = indices.get(s);
+    return index == null ? NULL : index;
+  }
+
+  public synchronized int size() {
+    return strings.size();
+  }
+
+  /**
+   * Drops what is only needed to add strings. Call once the table is complete; it can still be read
+   * from any thread afterwards.
+   */
+  public synchronized void compact() {
+    indices = null;
+    strings.trimToSize();
+  }
+}
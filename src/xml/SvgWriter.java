@@ -0,0 +1,212 @@
+package xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+import org.jgrapht.Graph;
+
+/**
+ * Writes a flowgraph as SVG in one pass, straight to the file: the same picture the images show,
+ * with each node as an ellipse around its label at its pinned position and each edge as a line with
+ * an arrowhead, labelled with its ports (see {@link PinnedLayout}). The layout keeps a box for every
+ * node, so memory grows with the number of nodes.
+ *
+ * Every node and edge is a group with a title, the node ID or the IDs it connects, which browsers
+ * show as a tooltip.
+ */
+public class SvgWriter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final String NEWLINE = System.lineSeparator();
+
+  private final Writer out;
+  // Digits of a number being written.
+  private final char[] digits = new char[24];
+
+  /**
+   * Creates the file, or replaces it.
+   * @param file
+   * @throws IOException
+   */
+  public SvgWriter(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    out = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+  }
+
+  /**
+   * @param graph
+   * @param labels Label of each node.
+   * @throws IOException
+   */
+  public void write(Graph<FlowGraphNode, FlowGraphEdge> graph, Function<FlowGraphNode, String> labels)
+      throws IOException {
+    PinnedLayout layout = new PinnedLayout(graph, labels);
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+    out.write(NEWLINE);
+    out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+    out.write(Long.toString((long) Math.ceil(layout.getWidth())));
+    out.write("pt\" height=\"");
+    out.write(Long.toString((long) Math.ceil(layout.getHeight())));
+    out.write("pt\" viewBox=\"");
+    writeNumbers(layout.getLeft(), layout.getTop(), layout.getWidth(), layout.getHeight());
+    out.write("\">");
+    out.write(NEWLINE);
+    out.write("<rect");
+    writeAttribute("x", layout.getLeft());
+    writeAttribute("y", layout.getTop());
+    writeAttribute("width", layout.getWidth());
+    writeAttribute("height", layout.getHeight());
+    out.write(" fill=\"white\"/>");
+    out.write(NEWLINE);
+    out.write("<g font-family=\"Times,serif\" font-size=\"");
+    out.write(Integer.toString(PinnedLayout.FONT.getSize()));
+    out.write("\" text-anchor=\"middle\">");
+    out.write(NEWLINE);
+
+    for (FlowGraphNode node : graph.vertexSet()) {
+      PinnedLayout.Box box = layout.getBox(node);
+      out.write("<g class=\"node\"><title>");
+      writeEscaped(String.valueOf(node.getId()));
+      out.write("</title><ellipse");
+      writeAttribute("cx", box.x);
+      writeAttribute("cy", box.y);
+      writeAttribute("rx", box.rx);
+      writeAttribute("ry", box.ry);
+      out.write(" fill=\"none\" stroke=\"black\"/>");
+      double baseline = box.getFirstBaseline();
+      for (int i = 0; i < box.lines.length; i++) {
+        if (!box.lines[i].isEmpty()) {
+          writeText(box.x, baseline + i * PinnedLayout.LINE_HEIGHT, box.lines[i]);
+        }
+      }
+      out.write("</g>");
+      out.write(NEWLINE);
+    }
+
+    for (FlowGraphEdge edge : graph.edgeSet()) {
+      PinnedLayout.Route route = layout.route(edge);
+      double[] p = route.path;
+      out.write("<g class=\"edge\"><title>");
+      writeEscaped(edge.nodeOut + "->" + edge.nodeIn);
+      out.write("</title><path d=\"M");
+      writeNumbers(p[0], p[1]);
+      if (route.loop) {
+        out.write(" C");
+        writeNumbers(p[2], p[3], p[4], p[5], p[6], p[7]);
+      } else {
+        out.write(" L");
+        writeNumbers(p[2], p[3]);
+      }
+      out.write("\" fill=\"none\" stroke=\"black\"/>");
+      if (route.arrow != null) {
+        out.write("<polygon points=\"");
+        writeNumbers(route.arrow);
+        out.write("\"/>");
+      }
+      writeText(route.labelX, route.labelBaseline, route.label);
+      out.write("</g>");
+      out.write(NEWLINE);
+    }
+
+    out.write("</g>");
+    out.write(NEWLINE);
+    out.write("</svg>");
+    out.write(NEWLINE);
+  }
+
+  private void writeText(double x, double baseline, String text) throws IOException {
+    out.write("<text");
+    writeAttribute("x", x);
+    writeAttribute("y", baseline);
+    out.write('>');
+    writeEscaped(text);
+    out.write("</text>");
+  }
+
+  private void writeAttribute(String name, double value) throws IOException {
+    out.write(' ');
+    out.write(name);
+    out.write("=\"");
+    writeNumber(value);
+    out.write('"');
+  }
+
+  /**
+   * Writes numbers separated by spaces.
+   */
+  private void writeNumbers(double... values) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        out.write(' ');
+      }
+      writeNumber(values[i]);
+    }
+  }
+
+  /**
+   * Writes a number with two decimals and a decimal point, whatever the locale. Much cheaper than a
+   * Formatter, which parses its format again for every number.
+   */
+  private void writeNumber(double value) throws IOException {
+    long hundredths = Math.round(Math.abs(value) * 100);
+    int i = digits.length;
+    for (int d = 0; d < 3 || hundredths > 0; d++) {
+      if (d == 2) {
+        digits[--i] = '.';
+      }
+      digits[--i] = (char) ('0' + hundredths % 10);
+      hundredths /= 10;
+    }
+    if (value < 0 && !isZero(digits, i)) {
+      digits[--i] = '-';
+    }
+    out.write(digits, i, digits.length - i);
+  }
+
+  private static boolean isZero(char[] digits, int from) {
+    for (int i = from; i < digits.length; i++) {
+      if (digits[i] != '0' && digits[i] != '.') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes text as XML character data, leaving out characters XML can't hold.
+   */
+  private void writeEscaped(String s) throws IOException {
+    int from = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      String escaped;
+      if (c == '&') {
+        escaped = "&amp;";
+      } else if (c == '<') {
+        escaped = "&lt;";
+      } else if (c == '>') {
+        escaped = "&gt;";
+      } else if (c < 0x20 && c != '\t' || c == 0xFFFE || c == 0xFFFF) {
+        escaped = "";
+      } else {
+        continue;
+      }
+      out.write(s, from, i - from);
+      out.write(escaped);
+      from = i + 1;
+    }
+    out.write(s, from, s.length() - from);
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,490 @@
+package xml;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+import org.jgrapht.Graph;
+
+/**
+ * A flowgraph cut into a Deep Zoom tile pyramid, for graphs too large to view as one image. Level 0
+ * is a single pixel and every level doubles the size of the one before, up to the full picture at
+ * 96 dpi as drawn by {@link Java2DRenderer}. Each tile is drawn on its own from the pinned layout, so
+ * the full image is never built: {@link #write(File, Executor)} draws every tile in parallel, and
+ * {@link #writeTile(File, int, int, int)} draws just the tiles asked for.
+ *
+ * Labels can't be read once they are a few pixels high, so levels below {@link #DETAIL_SCALE} only
+ * show each node as a filled box and each edge as a faint line, which add up to show where the graph
+ * is dense.
+ *
+ * The pyramid is a .dzi file describing the image, next to a directory named after it with one
+ * subdirectory of tiles per level, as read by OpenSeadragon and other Deep Zoom viewers.
+ */
+public class TilePyramid {
+  private static final String FORMAT = "jpg";
+  private static final double SCALE = 96.0 / 72;
+  private static final int TILE_SIZE = 256;
+  // Pixels each tile shares with its neighbours, so there are no seams between them.
+  private static final int OVERLAP = 1;
+  // Size of the cells nodes and edges are indexed by, in points: four tiles at the finest level.
+  private static final double CELL_SIZE = TILE_SIZE * 4 / SCALE;
+  // Cells an item may cover before it is kept apart and looked at for every tile instead.
+  private static final long MAX_CELLS = 64;
+  private static final Color BOX_COLOR = new Color(0x606060);
+  // How dark a single edge is drawn at the coarse levels, so that where many cross it gets darker.
+  private static final double EDGE_OPACITY = 0.2;
+  private static final int[] EDGE_SHADE = shades();
+
+  /**
+   * Pixels per point from which tiles are drawn in full, with labels, which are then at least 7 pixels
+   * high.
+   */
+  public static final double DETAIL_SCALE = 0.5;
+
+  private final PinnedLayout layout;
+  private final PinnedLayout.Box[] boxes;
+  private final PinnedLayout.Route[] routes;
+  // Left, top, right and bottom of each node and then each edge, in points.
+  private final double[] bounds;
+  // Nodes and edges touching each cell, by cell.
+  private final Map<Long, int[]> cells = new HashMap<Long, int[]>();
+  // Items too large to index, mostly long edges.
+  private final int[] wide;
+  private final int maxLevel;
+
+  /**
+   * Lays out the graph and indexes where each node and edge is.
+   * @param graph
+   * @param labels Label of each node.
+   */
+  public TilePyramid(Graph<FlowGraphNode, FlowGraphEdge> graph, Function<FlowGraphNode, String> labels) {
+    this(graph, new PinnedLayout(graph, labels));
+  }
+
+  TilePyramid(Graph<FlowGraphNode, FlowGraphEdge> graph, PinnedLayout layout) {
+    this.layout = layout;
+    boxes = new PinnedLayout.Box[graph.vertexSet().size()];
+    routes = new PinnedLayout.Route[graph.edgeSet().size()];
+    bounds = new double[(boxes.length + routes.length) * 4];
+    int i = 0;
+    for (FlowGraphNode node : graph.vertexSet()) {
+      PinnedLayout.Box box = layout.getBox(node);
+      boxes[i] = box;
+      setBounds(i++, box.x - box.rx, box.y - box.ry, box.x + box.rx, box.y + box.ry);
+    }
+    for (FlowGraphEdge edge : graph.edgeSet()) {
+      PinnedLayout.Route route = layout.route(edge);
+      routes[i - boxes.length] = route;
+      setBounds(i++, route);
+    }
+    wide = index();
+    double side = Math.max(layout.getWidth(), layout.getHeight()) * SCALE;
+    maxLevel = (int) Math.ceil(Math.log(Math.max(side, 1)) / Math.log(2));
+  }
+
+  private void setBounds(int item, double left, double top, double right, double bottom) {
+    bounds[item * 4] = left;
+    bounds[item * 4 + 1] = top;
+    bounds[item * 4 + 2] = right;
+    bounds[item * 4 + 3] = bottom;
+  }
+
+  /**
+   * Bounds of everything drawn for an edge: the line, the arrowhead and the label.
+   */
+  private void setBounds(int item, PinnedLayout.Route route) {
+    double left = route.labelX - route.labelWidth / 2;
+    double right = route.labelX + route.labelWidth / 2;
+    double top = route.labelBaseline - PinnedLayout.LINE_HEIGHT;
+    double bottom = route.labelBaseline + PinnedLayout.LINE_HEIGHT;
+    double[][] points = { route.path, route.arrow == null ? new double[0] : route.arrow };
+    for (double[] p : points) {
+      for (int j = 0; j < p.length; j += 2) {
+        left = Math.min(left, p[j]);
+        right = Math.max(right, p[j]);
+        top = Math.min(top, p[j + 1]);
+        bottom = Math.max(bottom, p[j + 1]);
+      }
+    }
+    setBounds(item, left, top, right, bottom);
+  }
+
+  /**
+   * Files each item under the cells it covers.
+   * @return Items that cover too many cells to file.
+   */
+  private int[] index() {
+    Map<Long, List<Integer>> lists = new HashMap<Long, List<Integer>>();
+    List<Integer> wideItems = new ArrayList<Integer>();
+    for (int item = 0; item < bounds.length / 4; item++) {
+      if ((cell(bounds[item * 4 + 2]) - cell(bounds[item * 4]) + 1)
+          * (cell(bounds[item * 4 + 3]) - cell(bounds[item * 4 + 1]) + 1) > MAX_CELLS) {
+        wideItems.add(item);
+        continue;
+      }
+      for (long cellY = cell(bounds[item * 4 + 1]); cellY <= cell(bounds[item * 4 + 3]); cellY++) {
+        for (long cellX = cell(bounds[item * 4]); cellX <= cell(bounds[item * 4 + 2]); cellX++) {
+          lists.computeIfAbsent(key(cellX, cellY), k -> new ArrayList<Integer>()).add(item);
+        }
+      }
+    }
+    for (Map.Entry<Long, List<Integer>> entry : lists.entrySet()) {
+      cells.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+    }
+    return wideItems.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static long cell(double coordinate) {
+    return (long) Math.floor(coordinate / CELL_SIZE);
+  }
+
+  private static long key(long cellX, long cellY) {
+    return (cellX << 32) ^ (cellY & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @return The finest level, at full size.
+   */
+  public int getMaxLevel() {
+    return maxLevel;
+  }
+
+  /**
+   * @param level
+   * @return Pixels per point at the level.
+   */
+  public double getScale(int level) {
+    return SCALE / Math.pow(2, maxLevel - level);
+  }
+
+  /**
+   * @param level
+   * @return Width of the whole picture at the level, in pixels.
+   */
+  public int getWidth(int level) {
+    return Math.max(1, (int) Math.ceil(layout.getWidth() * getScale(level)));
+  }
+
+  /**
+   * @param level
+   * @return Height of the whole picture at the level, in pixels.
+   */
+  public int getHeight(int level) {
+    return Math.max(1, (int) Math.ceil(layout.getHeight() * getScale(level)));
+  }
+
+  public int getColumns(int level) {
+    return (getWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  public int getRows(int level) {
+    return (getHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  /**
+   * Draws one tile. Can be called for several tiles at the same time.
+   * @param level
+   * @param column
+   * @param row
+   * @return The tile, with its overlap on the sides that have neighbours.
+   */
+  public BufferedImage drawTile(int level, int column, int row) {
+    double scale = getScale(level);
+    int x0 = Math.max(0, column * TILE_SIZE - OVERLAP);
+    int y0 = Math.max(0, row * TILE_SIZE - OVERLAP);
+    int x1 = Math.min(getWidth(level), (column + 1) * TILE_SIZE + OVERLAP);
+    int y1 = Math.min(getHeight(level), (row + 1) * TILE_SIZE + OVERLAP);
+    BufferedImage image = new BufferedImage(Math.max(1, x1 - x0), Math.max(1, y1 - y0), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, image.getWidth(), image.getHeight());
+      // What the tile shows, in points, with a pixel to spare for lines on the edge.
+      double margin = 1 / scale;
+      BitSet items = find(layout.getLeft() + x0 / scale - margin, layout.getTop() + y0 / scale - margin,
+          layout.getLeft() + x1 / scale + margin, layout.getTop() + y1 / scale + margin);
+      if (scale >= DETAIL_SCALE) {
+        g.translate(-x0, -y0);
+        g.scale(scale, scale);
+        g.translate(-layout.getLeft(), -layout.getTop());
+        drawDetail(g, items);
+      } else {
+        drawOutline(image, g, items, scale, layout.getLeft() + x0 / scale, layout.getTop() + y0 / scale);
+      }
+    } finally {
+      g.dispose();
+    }
+    return image;
+  }
+
+  /**
+   * Draws nodes and edges the way the images show them.
+   */
+  private void drawDetail(Graphics2D g, BitSet items) {
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+    g.setColor(Color.BLACK);
+    g.setStroke(new BasicStroke(1));
+    g.setFont(PinnedLayout.FONT);
+    for (int item = items.nextSetBit(0); item >= 0; item = items.nextSetBit(item + 1)) {
+      if (item < boxes.length) {
+        Java2DRenderer.drawBox(g, boxes[item]);
+      } else {
+        Java2DRenderer.drawEdge(g, routes[item - boxes.length]);
+      }
+    }
+  }
+
+  /**
+   * Draws each node as a filled box at least a pixel wide, and each edge as a faint line from end to
+   * end. Drawn in whole pixels without scaling the graphics, which is many times faster for the
+   * thousands of nodes a coarse tile shows.
+   * @param left Point at the left edge of the tile.
+   * @param top Point at the top edge of the tile.
+   */
+  private void drawOutline(BufferedImage image, Graphics2D g, BitSet items, double scale, double left,
+      double top) {
+    int item = items.nextSetBit(0);
+    g.setColor(BOX_COLOR);
+    for (; item >= 0 && item < boxes.length; item = items.nextSetBit(item + 1)) {
+      PinnedLayout.Box box = boxes[item];
+      int x = (int) Math.floor((box.x - box.rx - left) * scale);
+      int y = (int) Math.floor((box.y - box.ry - top) * scale);
+      g.fillRect(x, y, Math.max(1, (int) Math.round(box.rx * 2 * scale)),
+          Math.max(1, (int) Math.round(box.ry * 2 * scale)));
+    }
+    // Java2D blends translucent lines one pixel at a time, so count the lines crossing each pixel and
+    // darken it once for all of them instead.
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] counts = new int[width * height];
+    for (; item >= 0; item = items.nextSetBit(item + 1)) {
+      double[] p = routes[item - boxes.length].path;
+      countLine(counts, width, height, (p[0] - left) * scale, (p[1] - top) * scale,
+          (p[p.length - 2] - left) * scale, (p[p.length - 1] - top) * scale);
+    }
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        pixels[i] = darken(pixels[i], EDGE_SHADE[Math.min(counts[i], EDGE_SHADE.length - 1)]);
+      }
+    }
+  }
+
+  /**
+   * Adds one to each pixel a line crosses, for the part of the line inside the tile.
+   */
+  private static void countLine(int[] counts, int width, int height, double x0, double y0, double x1,
+      double y1) {
+    // Cut the line to the tile first, as an edge may reach far past it.
+    double from = 0;
+    double to = 1;
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    double[] p = { -dx, dx, -dy, dy };
+    double[] q = { x0, width - x0, y0, height - y0 };
+    for (int i = 0; i < 4; i++) {
+      if (p[i] == 0) {
+        if (q[i] < 0) {
+          return;
+        }
+      } else if (p[i] < 0) {
+        from = Math.max(from, q[i] / p[i]);
+      } else {
+        to = Math.min(to, q[i] / p[i]);
+      }
+    }
+    if (from > to) {
+      return;
+    }
+    double sx = x0 + dx * from;
+    double sy = y0 + dy * from;
+    int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)) * (to - from));
+    double stepX = steps == 0 ? 0 : dx * (to - from) / steps;
+    double stepY = steps == 0 ? 0 : dy * (to - from) / steps;
+    for (int i = 0; i <= steps; i++) {
+      int x = Math.min(width - 1, (int) (sx + stepX * i));
+      int y = Math.min(height - 1, (int) (sy + stepY * i));
+      counts[y * width + x]++;
+    }
+  }
+
+  private static int darken(int rgb, int shade) {
+    int r = ((rgb >> 16) & 0xFF) * shade >> 8;
+    int g = ((rgb >> 8) & 0xFF) * shade >> 8;
+    int b = (rgb & 0xFF) * shade >> 8;
+    return r << 16 | g << 8 | b;
+  }
+
+  /**
+   * How much of a pixel is left, out of 256, once it has been crossed by as many lines as the index,
+   * each of which takes away a fifth.
+   */
+  private static int[] shades() {
+    int[] shades = new int[32];
+    for (int i = 0; i < shades.length; i++) {
+      shades[i] = (int) Math.round(256 * Math.pow(1 - EDGE_OPACITY, i));
+    }
+    return shades;
+  }
+
+  /**
+   * @return Nodes and then edges whose bounds meet the area, in order.
+   */
+  private BitSet find(double left, double top, double right, double bottom) {
+    BitSet items = new BitSet(bounds.length / 4);
+    long cellX0 = cell(left);
+    long cellY0 = cell(top);
+    long cellX1 = cell(right);
+    long cellY1 = cell(bottom);
+    if ((cellX1 - cellX0 + 1) * (cellY1 - cellY0 + 1) > cells.size()) {
+      // Most of the graph is in view, so look at every item rather than every cell.
+      for (int item = 0; item < bounds.length / 4; item++) {
+        if (meets(item, left, top, right, bottom)) {
+          items.set(item);
+        }
+      }
+      return items;
+    }
+    for (int item : wide) {
+      if (meets(item, left, top, right, bottom)) {
+        items.set(item);
+      }
+    }
+    for (long cellY = cellY0; cellY <= cellY1; cellY++) {
+      for (long cellX = cellX0; cellX <= cellX1; cellX++) {
+        int[] cell = cells.get(key(cellX, cellY));
+        if (cell == null) {
+          continue;
+        }
+        for (int item : cell) {
+          if (!items.get(item) && meets(item, left, top, right, bottom)) {
+            items.set(item);
+          }
+        }
+      }
+    }
+    return items;
+  }
+
+  private boolean meets(int item, double left, double top, double right, double bottom) {
+    return bounds[item * 4] <= right && bounds[item * 4 + 2] >= left && bounds[item * 4 + 1] <= bottom
+        && bounds[item * 4 + 3] >= top;
+  }
+
+  /**
+   * Writes the description of the pyramid, which viewers read first.
+   * @param dziFile
+   * @throws IOException
+   */
+  public void writeDescriptor(File dziFile) throws IOException {
+    try (Writer out = Files.newBufferedWriter(dziFile.toPath(), StandardCharsets.UTF_8)) {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      out.write(System.lineSeparator());
+      out.write(String.format("<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"%d\" "
+          + "Overlap=\"%d\" Format=\"%s\"><Size Width=\"%d\" Height=\"%d\"/></Image>", TILE_SIZE, OVERLAP, FORMAT,
+          getWidth(maxLevel), getHeight(maxLevel)));
+      out.write(System.lineSeparator());
+    }
+  }
+
+  /**
+   * Gets where a tile goes: level/column_row.jpg in the directory named after the .dzi file.
+   * @param dziFile
+   * @param level
+   * @param column
+   * @param row
+   * @return
+   */
+  public static File getTileFile(File dziFile, int level, int column, int row) {
+    String name = dziFile.getName();
+    int dot = name.lastIndexOf('.');
+    File tilesDir = new File(dziFile.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + "_files");
+    return new File(new File(tilesDir, Integer.toString(level)), column + "_" + row + "." + FORMAT);
+  }
+
+  /**
+   * Draws a tile and writes it, unless it was written already.
+   * @param dziFile
+   * @param level
+   * @param column
+   * @param row
+   * @return The tile file.
+   * @throws IOException
+   */
+  public File writeTile(File dziFile, int level, int column, int row) throws IOException {
+    File tileFile = getTileFile(dziFile, level, column, row);
+    if (!tileFile.exists()) {
+      Files.createDirectories(tileFile.getParentFile().toPath());
+      if (!ImageIO.write(drawTile(level, column, row), FORMAT, tileFile)) {
+        throw new IOException("No writer for " + FORMAT + " images");
+      }
+    }
+    return tileFile;
+  }
+
+  /**
+   * Writes the descriptor and draws every tile of every level, a row of tiles per task, replacing any
+   * tiles written before. Returns once every task is done.
+   * @param dziFile
+   * @param executor Runs the tasks. Must not be the pool of the calling thread, which only waits.
+   * @return Number of tiles written.
+   * @throws IOException
+   */
+  public int write(File dziFile, Executor executor) throws IOException {
+    writeDescriptor(dziFile);
+    List<CompletableFuture<Void>> rows = new ArrayList<CompletableFuture<Void>>();
+    int tiles = 0;
+    for (int level = 0; level <= maxLevel; level++) {
+      Files.createDirectories(getTileFile(dziFile, level, 0, 0).getParentFile().toPath());
+      int columns = getColumns(level);
+      for (int row = 0; row < getRows(level); row++) {
+        int l = level;
+        int r = row;
+        rows.add(CompletableFuture.runAsync(() -> {
+          for (int column = 0; column < columns; column++) {
+            File tileFile = getTileFile(dziFile, l, column, r);
+            try {
+              if (!ImageIO.write(drawTile(l, column, r), FORMAT, tileFile)) {
+                throw new IOException("No writer for " + FORMAT + " images");
+              }
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        }, executor));
+        tiles += columns;
+      }
+    }
+    try {
+      CompletableFuture.allOf(rows.toArray(new CompletableFuture<?>[rows.size()])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw e;
+    }
+    return tiles;
+  }
+}
@@ -0,0 +1,61 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AttributeTokenizerTest {
+  private static final String NODE = "<Node Id=\"7\" Name=\"Tom &amp; Jerry&apos;s &quot;&lt;door&gt;&quot;\" "
+      + "Class\t=\n'Logic:Any' pos=\"1,2,3\"/>";
+
+  private static AttributeTokenizer bytes(AttributeTokenizer t, String xml) {
+    ByteBuffer buf = ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8));
+    return t.reset(buf, 0, buf.limit());
+  }
+
+  @Test
+  public void decodesReferencesInValues() {
+    for (StringInterner interner : new StringInterner[] { null, new StringInterner() }) {
+      AttributeTokenizer t = new AttributeTokenizer(interner, "id", "name", "class");
+      for (AttributeTokenizer reset : new AttributeTokenizer[] { t.reset(NODE), bytes(t, NODE) }) {
+        assertTrue(reset.isElement("Node"));
+        reset.readAttributes();
+        assertEquals("Tom & Jerry's \"<door>\"", reset.value(1));
+        assertEquals("Logic:Any", reset.value(2));
+        assertTrue(reset.isSelfClosing());
+      }
+    }
+  }
+
+  @Test
+  public void decodesCharacterReferences() {
+    AttributeTokenizer t = new AttributeTokenizer("name");
+    String xml = "<Node Name=\"&#65;&#x42;&#x1F600;&#10;&bogus; &#xZZ;\"/>";
+    assertEquals("AB\uD83D\uDE00\n&bogus; &#xZZ;", t.reset(xml).readAttributes().value(0));
+    assertEquals("AB\uD83D\uDE00\n&bogus; &#xZZ;", bytes(t, xml).readAttributes().value(0));
+  }
+
+  @Test
+  public void normalizesWhitespaceInValues() {
+    AttributeTokenizer t = new AttributeTokenizer(new StringInterner(), "name");
+    String xml = "<Node Name=\"one\r\ntwo\tthree\nfour\"/>";
+    assertEquals("one two three four", bytes(t, xml).readAttributes().value(0));
+    // Read again, past the recent strings.
+    assertEquals("one two three four", bytes(t, xml).readAttributes().value(0));
+  }
+
+  @Test
+  public void readsAllAttributesDecoded() {
+    Map<String, String> inputs = new LinkedHashMap<String, String>();
+    new AttributeTokenizer(new StringInterner()).reset("<Inputs Text=\"a &lt; b\"  Value = '1'/>")
+        .readAllAttributes(inputs);
+    assertEquals("a < b", inputs.get("text"));
+    assertEquals("1", inputs.get("value"));
+  }
+}
@@ -0,0 +1,82 @@
+package xml;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildManifestTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File dir;
+  private File outDir;
+  private File xml;
+  private File dot;
+  private List<File> dictionaries;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = folder.getRoot();
+    outDir = folder.newFolder("out");
+    xml = new File(dir, "global_test.xml");
+    Files.write(xml.toPath(), "<Graph/>".getBytes(StandardCharsets.UTF_8));
+    File dictionary = new File(dir, "remoteevents.xml");
+    Files.write(dictionary.toPath(), "<Events/>".getBytes(StandardCharsets.UTF_8));
+    dictionaries = Collections.singletonList(dictionary);
+    dot = new File(outDir, "global_test.dot");
+    Files.write(dot.toPath(), "digraph G {}".getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Records the file as built with the given settings, and loads the manifest back.
+   */
+  private BuildManifest build(String settings) throws IOException {
+    BuildManifest manifest = new BuildManifest(outDir, dir, dictionaries);
+    manifest.setOutputSettings(settings);
+    manifest.isUpToDate(xml);
+    manifest.markBuilt(xml, Collections.singletonList(dot));
+    manifest.save();
+    return new BuildManifest(outDir, dir, dictionaries);
+  }
+
+  @Test
+  public void skipsUnchangedFile() throws IOException {
+    BuildManifest manifest = build("dot,image,flat");
+    manifest.setOutputSettings("dot,image,flat");
+    assertTrue(manifest.isUpToDate(xml));
+  }
+
+  @Test
+  public void rebuildsChangedFile() throws IOException {
+    BuildManifest manifest = build("dot,image,flat");
+    manifest.setOutputSettings("dot,image,flat");
+    Files.write(xml.toPath(), "<Graph></Graph>".getBytes(StandardCharsets.UTF_8));
+    assertFalse(manifest.isUpToDate(xml));
+  }
+
+  @Test
+  public void rebuildsWhenOutputSettingsChange() throws IOException {
+    BuildManifest manifest = build("dot,image,flat");
+    manifest.setOutputSettings("svg,flat");
+    assertFalse(manifest.isUpToDate(xml));
+  }
+
+  @Test
+  public void rebuildsWhenOutputIsGone() throws IOException {
+    BuildManifest manifest = build("dot,image,flat");
+    manifest.setOutputSettings("dot,image,flat");
+    assertTrue(dot.delete());
+    assertFalse(manifest.isUpToDate(xml));
+  }
+}
@@ -0,0 +1,103 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DictionarySnapshotTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File snapshotFile;
+  private File library;
+  private List<File> sources;
+
+  @Before
+  public void setUp() throws IOException {
+    snapshotFile = new File(folder.getRoot(), DictionarySnapshot.FILE_NAME);
+    library = new File(folder.getRoot(), "remoteevents.xml");
+    Files.write(library.toPath(), "<Events>1</Events>".getBytes(StandardCharsets.UTF_8));
+    // Missing libraries are recorded too.
+    sources = Arrays.asList(library, new File(folder.getRoot(), "missing.xml"));
+  }
+
+  private void writeSnapshot(String eventName) throws IOException {
+    Map<String, String> events = new HashMap<String, String>();
+    events.put("3001", eventName);
+    events.put("3002", "Other event");
+    events.put(null, "No id");
+    StringTable strings = new StringTable();
+    LongIntMap ids = new LongIntMap();
+    ids.put(-1234L, strings.add("Signed task"));
+    ids.put(42L, strings.add("Task 42"));
+    DictionarySnapshot.write(snapshotFile, sources, Collections.singletonMap("events", events),
+        Collections.singletonMap("tasks", new IdDictionary(ids, strings)));
+  }
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    writeSnapshot("Door opened");
+    DictionarySnapshot snapshot = DictionarySnapshot.open(snapshotFile, sources);
+    assertNotNull(snapshot);
+
+    Dictionary events = snapshot.get("events");
+    assertEquals("Door opened", events.get("3001"));
+    assertEquals("Other event", events.get("3002"));
+    assertEquals("No id", events.get(null));
+    assertNull(events.get("3003"));
+    assertEquals(3, events.size());
+
+    Dictionary tasks = snapshot.get("tasks");
+    assertEquals("Task 42", tasks.get("42"));
+    assertEquals("Signed task", tasks.get("-1234"));
+    assertEquals("Signed task", tasks.get(Long.toUnsignedString(-1234L)));
+    assertEquals(0, snapshot.get("clues").size());
+  }
+
+  @Test
+  public void replacesOutOfDateSnapshot() throws IOException {
+    writeSnapshot("Door opened");
+    Files.write(library.toPath(), "<Events>12</Events>".getBytes(StandardCharsets.UTF_8));
+    assertNull(DictionarySnapshot.open(snapshotFile, sources));
+
+    writeSnapshot("Door closed");
+    DictionarySnapshot snapshot = DictionarySnapshot.open(snapshotFile, sources);
+    assertNotNull(snapshot);
+    assertEquals("Door closed", snapshot.get("events").get("3001"));
+  }
+
+  @Test
+  public void rejectsOtherLibraries() throws IOException {
+    writeSnapshot("Door opened");
+    assertNull(DictionarySnapshot.open(snapshotFile, Collections.singletonList(library)));
+  }
+
+  @Test
+  public void recordsNewTimeOfTouchedLibrary() throws IOException {
+    writeSnapshot("Door opened");
+    long touched = library.lastModified() - 60000;
+    assertTrue(library.setLastModified(touched));
+    assertNotNull(DictionarySnapshot.open(snapshotFile, sources));
+
+    // Same size and the recorded time, so the snapshot is taken without hashing the library.
+    Files.write(library.toPath(), "<Events>2</Events>".getBytes(StandardCharsets.UTF_8));
+    assertTrue(library.setLastModified(touched));
+    assertNotNull(DictionarySnapshot.open(snapshotFile, sources));
+  }
+}
@@ -0,0 +1,33 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DictionaryTest {
+
+  @Test
+  public void findsNumericIdsSignedOrUnsignedLikeTheIndex() {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("18446744073709551615", "unsigned");
+    map.put("-2", "signed");
+    map.put("7", "small");
+    map.put("Intro", "text");
+    Dictionary numeric = Dictionary.numericIds(Dictionary.of(map));
+    Dictionary indexed = new IdIndex.Builder().add(IdIndex.Kind.GAME_TOKEN, Dictionary.of(map)).build()
+        .dictionary(IdIndex.Kind.GAME_TOKEN);
+    for (String id : new String[] { "-1", "18446744073709551615", "-2", "18446744073709551614", "7", "Intro",
+        "8", "-", "" }) {
+      assertEquals(id, indexed.containsKey(id), numeric.containsKey(id));
+      assertEquals(id, indexed.get(id), numeric.get(id));
+    }
+    assertTrue(numeric.containsKey("-1"));
+    assertEquals("signed", numeric.get("18446744073709551614"));
+    assertFalse(numeric.containsKey(null));
+  }
+}
@@ -0,0 +1,114 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventGraphTest {
+  // Listens for event 5 and sends event -2, written signed.
+  private static final String LEVEL_A = "<Mission>\n"
+      + " <Entity Name=\"Relay\">\n"
+      + "  <FlowGraph>\n"
+      + "   <Nodes>\n"
+      + "    <Node Id=\"1\" Class=\"Ark:SendRemoteEvent\" pos=\"0,0,0\">\n"
+      + "     <Inputs remoteevent_Event=\"-2\"/>\n"
+      + "    </Node>\n"
+      + "    <Node Id=\"2\" Class=\"Ark:RemoteEvent\" pos=\"0,0,0\">\n"
+      + "     <Inputs remoteevent_Event=\"5\"/>\n"
+      + "    </Node>\n"
+      + "   </Nodes>\n"
+      + "   <Edges>\n"
+      + "    <Edge nodeIn=\"1\" nodeOut=\"2\" portIn=\"Send\" portOut=\"Out\" enabled=\"1\"/>\n"
+      + "   </Edges>\n"
+      + "  </FlowGraph>\n"
+      + " </Entity>\n"
+      + "</Mission>\n";
+  // Listens for the same event written unsigned, and sends event 9.
+  private static final String LEVEL_B = "<Mission>\n"
+      + " <Entity Name=\"Door\">\n"
+      + "  <FlowGraph>\n"
+      + "   <Nodes>\n"
+      + "    <Node Id=\"7\" Class=\"Ark:RemoteEvent\" pos=\"0,0,0\">\n"
+      + "     <Inputs remoteevent_Event=\"18446744073709551614\"/>\n"
+      + "    </Node>\n"
+      + "    <Node Id=\"8\" Class=\"Ark:SendRemoteEvent\" pos=\"0,0,0\">\n"
+      + "     <Inputs remoteevent_Event=\"9\"/>\n"
+      + "    </Node>\n"
+      + "   </Nodes>\n"
+      + "   <Edges>\n"
+      + "    <Edge nodeIn=\"8\" nodeOut=\"7\" portIn=\"Send\" portOut=\"Out\" enabled=\"1\"/>\n"
+      + "   </Edges>\n"
+      + "  </FlowGraph>\n"
+      + " </Entity>\n"
+      + "</Mission>\n";
+  private static final String EVENT = Long.toUnsignedString(-2L);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File levelA;
+  private File levelB;
+
+  @Before
+  public void setUp() throws IOException {
+    levelA = folder.newFile("level_a.xml");
+    Files.write(levelA.toPath(), LEVEL_A.getBytes(StandardCharsets.UTF_8));
+    levelB = folder.newFile("level_b.xml");
+    Files.write(levelB.toPath(), LEVEL_B.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static EventGraph.Partial scan(File xml) throws IOException {
+    try (FlowGraphReader r = InputMode.STAX.open(xml)) {
+      return EventGraph.scan(r, xml.getName());
+    }
+  }
+
+  private String dot(EventGraph events) throws IOException {
+    File dotFile = folder.newFile();
+    events.writeDot(dotFile.toPath(), id -> "event " + id);
+    return new String(Files.readAllBytes(dotFile.toPath()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void linksSignedAndUnsignedIds() throws IOException {
+    EventGraph events = new EventGraph.Builder().add(scan(levelA)).add(scan(levelB)).build();
+
+    assertEquals(Arrays.asList("18446744073709551614", "5", "9"),
+        Arrays.asList(events.getEventIds().toArray()));
+    assertEquals("[SENDER level_a.xml Relay node 1]", events.getSenders(EVENT).toString());
+    assertEquals("[RECEIVER level_b.xml Door node 7]", events.getReceivers("-2").toString());
+    assertEquals(1, events.getLinkedGroups().size());
+  }
+
+  @Test
+  public void buildsTheSameGraphInAnyOrder() throws IOException {
+    EventGraph forward = new EventGraph.Builder().add(scan(levelA)).add(scan(levelB)).build();
+    EventGraph backward = new EventGraph.Builder().add(scan(levelB)).add(scan(levelA)).build();
+
+    assertEquals(forward.getEventIds(), backward.getEventIds());
+    for (String id : forward.getEventIds()) {
+      assertEquals(forward.getSenders(id).toString(), backward.getSenders(id).toString());
+      assertEquals(forward.getReceivers(id).toString(), backward.getReceivers(id).toString());
+    }
+    assertEquals(dot(forward), dot(backward));
+  }
+
+  @Test
+  public void followsChainAcrossFiles() throws IOException {
+    EventGraph events = new EventGraph.Builder().add(scan(levelB)).add(scan(levelA)).build();
+
+    assertEquals(Arrays.asList("5", EVENT, "9"), events.getChain("5"));
+    assertEquals(Arrays.asList(EVENT, "9"), events.getChain("-2"));
+    assertEquals(Collections.singletonList("9"), events.getChain("9"));
+  }
+}
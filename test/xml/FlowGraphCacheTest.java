@@ -0,0 +1,109 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FlowGraphCacheTest {
+  private static final String LEVEL = "<Mission>\n"
+      + " <Entity Name=\"Door 1\">\n"
+      + "  <FlowGraph>\n"
+      + "   <Nodes>\n"
+      + "    <Node Id=\"1\" Class=\"Entity:Door\" pos=\"10,-20.5,0\">\n"
+      + "     <Inputs entityId=\"0\" bLocked=\"1\"/>\n"
+      + "    </Node>\n"
+      + "    <Node Id=\"2\" Name=\"Note\" Class=\"_comment\" pos=\"1,2,3\"/>\n"
+      + "   </Nodes>\n"
+      + "   <Edges>\n"
+      + "    <Edge nodeIn=\"1\" nodeOut=\"2\" portIn=\"Open\" portOut=\"Out\" enabled=\"1\"/>\n"
+      + "   </Edges>\n"
+      + "  </FlowGraph>\n"
+      + " </Entity>\n"
+      + " <Entity Name=\"Door 2\">\n"
+      + "  <FlowGraph>\n"
+      + "   <Nodes>\n"
+      + "    <Node Id=\"1\" Class=\"Entity:Door\" pos=\"0,0,0\">\n"
+      + "     <Inputs entityId=\"0\" bLocked=\"0\"/>\n"
+      + "    </Node>\n"
+      + "   </Nodes>\n"
+      + "   <Edges/>\n"
+      + "  </FlowGraph>\n"
+      + " </Entity>\n"
+      + "</Mission>\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File dir;
+  private File xml;
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = folder.getRoot();
+    xml = new File(dir, "mission_test.xml");
+    cacheDir = new File(dir, "cache");
+    Files.write(xml.toPath(), LEVEL.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void readsBackWhatItCached() throws IOException {
+    FlowGraphCache cache = new FlowGraphCache(cacheDir, dir, InputMode.STAX);
+    List<String> expected = FlowGraphs.read(InputMode.STAX, xml);
+
+    assertEquals(expected, FlowGraphs.read(cache, xml));
+    assertTrue(cache.getCacheFile(xml).exists());
+    assertEquals(expected, FlowGraphs.read(cache, xml));
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void replacesStaleCache() throws IOException {
+    FlowGraphCache cache = new FlowGraphCache(cacheDir, dir, InputMode.STAX);
+    FlowGraphs.read(cache, xml);
+    Files.write(xml.toPath(), LEVEL.replace("Door 2", "Gate 2").getBytes(StandardCharsets.UTF_8));
+
+    List<String> expected = FlowGraphs.read(InputMode.STAX, xml);
+    assertEquals(expected, FlowGraphs.read(cache, xml));
+    assertEquals(expected, FlowGraphs.read(cache, xml));
+    assertEquals(2, cache.getMisses());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void keepsCacheWhenOnlyModificationTimeChanged() throws IOException {
+    FlowGraphCache cache = new FlowGraphCache(cacheDir, dir, InputMode.STAX);
+    FlowGraphs.read(cache, xml);
+    assertTrue(xml.setLastModified(xml.lastModified() - 60000));
+
+    FlowGraphs.read(cache, xml);
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void returnsGraphsWhenCacheCantBeWritten() throws IOException {
+    FlowGraphCache cache = new FlowGraphCache(cacheDir, dir, InputMode.STAX);
+    // A directory in the way of the cache file, which can't be replaced.
+    File blocked = cache.getCacheFile(xml);
+    assertTrue(new File(blocked, "file").mkdirs());
+
+    assertEquals(FlowGraphs.read(InputMode.STAX, xml), FlowGraphs.read(cache, xml));
+    try (Stream<Path> files = Files.list(cacheDir.toPath())) {
+      assertFalse("temporary file left behind", files.anyMatch(p -> p.toString().endsWith(".tmp")));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlowGraphReaderTest {
+
+  private static File fixture(String name) throws URISyntaxException {
+    return new File(FlowGraphReaderTest.class.getResource(name).toURI());
+  }
+
+  @Test
+  public void everyModeReadsTheSameGraphs() throws Exception {
+    File xml = fixture("entities.xml");
+    List<String> stax = FlowGraphs.read(InputMode.STAX, xml);
+    assertEquals(stax, FlowGraphs.read(InputMode.LINE, xml));
+    assertEquals(stax, FlowGraphs.read(InputMode.MAPPED, xml));
+    assertEquals(stax, FlowGraphs.read(f -> new MappedFlowGraphReader(f, new StringInterner(), 128), xml));
+  }
+
+  @Test
+  public void decodesReferences() throws IOException, URISyntaxException {
+    List<String> lines = FlowGraphs.read(InputMode.MAPPED, fixture("entities.xml"));
+    assertEquals(Arrays.asList(
+        "graph Door \"A\"",
+        "  node 1 name=Tom & Jerry's class=Mission:GameTokenSet pos=10.0,-20.5,0.0",
+        "    gametokenid_token=1001",
+        "    value=a < b & C",
+        "  node 2 name=null class=Ark:SendRemoteEvent pos=200.0,20.0,0.0",
+        "    remoteevent_event=3001",
+        "  node null name=No id, with inputs class=_comment pos=0.0,100.0,0.0",
+        "  node null name=No id class=_comment pos=0.0,150.0,0.0",
+        "  node 3 name=caf\u00e9 \u2192 bar class=_comment pos=5.0,5.0,5.0",
+        "  edge 1.Out&Value -> 2.Send",
+        "graph null",
+        "  node 9 name=null class=Logic:Any pos=1.0,2.0,3.0"), lines);
+  }
+}
@@ -0,0 +1,43 @@
+package xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads flowgraphs into plain text for tests to compare, listing everything a reader returns in the
+ * order it returns it.
+ */
+class FlowGraphs {
+
+  private FlowGraphs() {
+  }
+
+  /**
+   * @param source
+   * @param xml
+   * @return One line for each graph, node, input and edge of the file.
+   * @throws IOException
+   */
+  static List<String> read(FlowGraphSource source, File xml) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    try (FlowGraphReader r = source.open(xml)) {
+      for (FlowGraph graph = r.next(); graph != null; graph = r.next()) {
+        lines.add("graph " + graph.getEntityName());
+        NodeStore nodes = graph.getNodeStore();
+        for (int i = 0; i < nodes.size(); i++) {
+          lines.add(String.format("  node %s name=%s class=%s pos=%s,%s,%s", nodes.getId(i), nodes.getName(i),
+              nodes.getNodeClass(i), nodes.getX(i), nodes.getY(i), nodes.getZ(i)));
+          for (int j = 0; j < nodes.getInputCount(i); j++) {
+            lines.add(String.format("    %s=%s", nodes.getInputKey(i, j), nodes.getInputValue(i, j)));
+          }
+        }
+        for (FlowGraphEdge edge : graph.getEdges()) {
+          lines.add(String.format("  edge %s.%s -> %s.%s", edge.nodeOut, edge.portOut, edge.nodeIn, edge.portIn));
+        }
+      }
+    }
+    return lines;
+  }
+}
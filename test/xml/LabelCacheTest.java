@@ -0,0 +1,98 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LabelCacheTest {
+  private static final String CLASS = "Test:Node";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AtomicInteger made = new AtomicInteger();
+  private final LabelRenderer renderer = (c, name, in) -> {
+    made.incrementAndGet();
+    return c + " " + name + " " + in.get("value");
+  };
+
+  private static Map<String, String> inputs(String value) {
+    Map<String, String> inputs = new LinkedHashMap<String, String>();
+    inputs.put("key", "k");
+    inputs.put("value", value);
+    return inputs;
+  }
+
+  @Test
+  public void makesEachDistinctLabelOnce() {
+    LabelCache cache = new LabelCache(100);
+    assertEquals("A n 1", cache.get("A", "n", inputs("1"), renderer));
+    assertEquals("A n 1", cache.get("A", "n", inputs("1"), renderer));
+    assertEquals(1, made.get());
+
+    cache.get("B", "n", inputs("1"), renderer);
+    cache.get("A", "m", inputs("1"), renderer);
+    cache.get("A", "n", inputs("2"), renderer);
+    cache.get("A", null, inputs("1"), renderer);
+    cache.get("A", "n", Collections.<String, String>emptyMap(), renderer);
+    assertEquals(6, made.get());
+    assertEquals(6, cache.size());
+  }
+
+  @Test
+  public void stopsTakingLabelsOnceFull() {
+    LabelCache cache = new LabelCache(2);
+    cache.get("A", "n", inputs("1"), renderer);
+    cache.get("A", "n", inputs("2"), renderer);
+    cache.get("A", "n", inputs("3"), renderer);
+    assertEquals(2, cache.size());
+
+    cache.get("A", "n", inputs("1"), renderer);
+    assertEquals(3, made.get());
+    assertEquals("A n 3", cache.get("A", "n", inputs("3"), renderer));
+    assertEquals(4, made.get());
+  }
+
+  @Test
+  public void leavesOutNullLabels() {
+    LabelCache cache = new LabelCache(100);
+    assertNull(cache.get("A", "n", inputs("1"), (c, name, in) -> null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void labelsEachNodeOnceUntilRenderersChange() {
+    ParseFlowGraph pfg = new ParseFlowGraph(folder.getRoot(), folder.getRoot());
+    pfg.registerLabelRenderer(CLASS, renderer);
+    NodeStore nodes = new NodeStore();
+    for (int i = 0; i < 3; i++) {
+      nodes.add(Integer.toString(i), "n", CLASS, 0, 0, 0);
+      nodes.putInput("value", i < 2 ? "same" : "other");
+    }
+    nodes.compact();
+
+    assertEquals("Test:Node n same", pfg.getLabel(nodes.view(0)));
+    assertEquals("Test:Node n same", pfg.getLabel(nodes.view(1)));
+    assertEquals("Test:Node n other", pfg.getLabel(nodes.view(2)));
+    assertEquals(2, made.get());
+
+    // The cache is cleared, but nodes already labelled keep their label.
+    pfg.registerLabelRenderer(CLASS, (c, name, in) -> "changed");
+    assertEquals("Test:Node n same", pfg.getLabel(nodes.view(0)));
+
+    NodeStore more = new NodeStore();
+    more.add("0", "n", CLASS, 0, 0, 0);
+    more.putInput("value", "same");
+    more.compact();
+    assertEquals("changed", pfg.getLabel(more.view(0)));
+    assertEquals(2, made.get());
+  }
+}
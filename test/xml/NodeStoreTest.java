@@ -0,0 +1,36 @@
+package xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class NodeStoreTest {
+
+  @Test
+  public void keepsEveryIdAsWritten() {
+    String[] ids = { "1", "0", "123456789", "007", "1234567890", "-3", "Door", "", null, "42" };
+    NodeStore nodes = new NodeStore();
+    for (String id : ids) {
+      nodes.add(id, "name", "Logic:Any", 0, 0, 0);
+    }
+    nodes.compact();
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(ids[i], nodes.getId(i));
+    }
+    assertNull(nodes.getId(8));
+  }
+
+  @Test
+  public void growsWithTextIds() {
+    NodeStore nodes = new NodeStore();
+    for (int i = 0; i < 100; i++) {
+      nodes.add(i % 7 == 0 ? "n" + i : Integer.toString(i), null, "Logic:Any", i, 0, 0);
+    }
+    nodes.compact();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i % 7 == 0 ? "n" + i : Integer.toString(i), nodes.getId(i));
+      assertEquals(i, nodes.getX(i), 0);
+    }
+  }
+}